@@ -0,0 +1,210 @@
+package org.tamanegi.gles;
+
+// ETC1 (OES_compressed_ETC1_RGB8_texture) encoder:
+//   each 4x4 block is tried with both orientations of sub-blocks,
+//   in differential mode if possible, or in individual mode
+public class ETC1Encoder
+{
+    public static final int BLOCK_BYTES = 8;
+
+    // intensity modifiers for pixel index: +a, +b, -a, -b
+    private static final int[][] MODIFIER_TABLE = {
+        {  2,   8,  -2,   -8 },
+        {  5,  17,  -5,  -17 },
+        {  9,  29,  -9,  -29 },
+        { 13,  42, -13,  -42 },
+        { 18,  60, -18,  -60 },
+        { 24,  80, -24,  -80 },
+        { 33, 106, -33, -106 },
+        { 47, 183, -47, -183 },
+    };
+
+    private int[] block = new int[16];
+    private int[] red = new int[16];
+    private int[] green = new int[16];
+    private int[] blue = new int[16];
+
+    // sums, quantized and expanded colors of sub-blocks
+    private int[] sum = new int[6];
+    private int[] q5 = new int[6];
+    private int[] q = new int[6];
+    private int[] base = new int[6];
+
+    // result of each trial
+    private int[] table_idx = new int[2];
+    private int[] pixel_idx = new int[16];
+    private int[] sub_pixel_idx = new int[16];
+    private long trial_error;
+
+    public static int getEncodedSize(int width, int height)
+    {
+        return ((width + 3) / 4) * ((height + 3) / 4) * BLOCK_BYTES;
+    }
+
+    // encode one row of blocks from at most 4 rows of ARGB pixels:
+    //   pixels out of image are filled with nearest edge pixel
+    public void encodeRow(int[] pixels, int offset, int stride,
+                          int width, int rows, byte[] out, int out_offset)
+    {
+        for(int bx = 0; bx < width; bx += 4) {
+            for(int y = 0; y < 4; y++) {
+                int py = Math.min(y, rows - 1);
+                for(int x = 0; x < 4; x++) {
+                    int px = Math.min(bx + x, width - 1);
+                    block[y * 4 + x] = pixels[offset + py * stride + px];
+                }
+            }
+
+            encodeBlock(block, out, out_offset);
+            out_offset += BLOCK_BYTES;
+        }
+    }
+
+    // encode 4x4 ARGB pixels in row major order: alpha is ignored
+    public void encodeBlock(int[] pixels, byte[] out, int out_offset)
+    {
+        for(int i = 0; i < 16; i++) {
+            red[i] = (pixels[i] >> 16) & 0xff;
+            green[i] = (pixels[i] >> 8) & 0xff;
+            blue[i] = pixels[i] & 0xff;
+        }
+
+        long code0 = encodeWithFlip(false);
+        long error0 = trial_error;
+        long code1 = encodeWithFlip(true);
+        long error1 = trial_error;
+        long code = (error0 <= error1 ? code0 : code1);
+
+        // big endian
+        for(int i = 0; i < BLOCK_BYTES; i++) {
+            out[out_offset + i] = (byte)(code >>> ((BLOCK_BYTES - 1 - i) * 8));
+        }
+    }
+
+    private long encodeWithFlip(boolean flip)
+    {
+        // average color of each sub-block
+        for(int i = 0; i < 6; i++) {
+            sum[i] = 0;
+        }
+        for(int i = 0; i < 16; i++) {
+            int sub = getSubBlock(i, flip);
+            sum[sub * 3 + 0] += red[i];
+            sum[sub * 3 + 1] += green[i];
+            sum[sub * 3 + 2] += blue[i];
+        }
+
+        for(int i = 0; i < 6; i++) {
+            q5[i] = Math.round(sum[i] / 8f * 31 / 255);
+        }
+        boolean diff = true;
+        for(int c = 0; c < 3; c++) {
+            int d = q5[3 + c] - q5[c];
+            if(d < -4 || d > 3) {
+                diff = false;
+            }
+        }
+
+        // base colors
+        for(int i = 0; i < 6; i++) {
+            if(diff) {
+                q[i] = q5[i];
+                base[i] = (q[i] << 3) | (q[i] >> 2);
+            }
+            else {
+                q[i] = Math.round(sum[i] / 8f * 15 / 255);
+                base[i] = (q[i] << 4) | q[i];
+            }
+        }
+
+        trial_error = 0;
+        for(int sub = 0; sub < 2; sub++) {
+            trial_error += fitSubBlock(sub, flip,
+                                       base[sub * 3 + 0],
+                                       base[sub * 3 + 1],
+                                       base[sub * 3 + 2]);
+        }
+
+        long code;
+        if(diff) {
+            code = (((long)q[0] << 59) |
+                    ((long)((q[3] - q[0]) & 7) << 56) |
+                    ((long)q[1] << 51) |
+                    ((long)((q[4] - q[1]) & 7) << 48) |
+                    ((long)q[2] << 43) |
+                    ((long)((q[5] - q[2]) & 7) << 40) |
+                    (1L << 33));
+        }
+        else {
+            code = (((long)q[0] << 60) | ((long)q[3] << 56) |
+                    ((long)q[1] << 52) | ((long)q[4] << 48) |
+                    ((long)q[2] << 44) | ((long)q[5] << 40));
+        }
+        code |= (((long)table_idx[0] << 37) |
+                 ((long)table_idx[1] << 34) |
+                 (flip ? (1L << 32) : 0));
+
+        // pixel indexes in column major order: msb and lsb separated
+        for(int i = 0; i < 16; i++) {
+            int bit = (i % 4) * 4 + (i / 4);
+            int idx = pixel_idx[i];
+            code |= (((long)(idx >> 1) << (16 + bit)) |
+                     ((long)(idx & 1) << bit));
+        }
+
+        return code;
+    }
+
+    // choose modifier table and pixel indexes for sub-block
+    private long fitSubBlock(int sub, boolean flip, int br, int bg, int bb)
+    {
+        long best_error = Long.MAX_VALUE;
+
+        for(int t = 0; t < MODIFIER_TABLE.length; t++) {
+            int[] mods = MODIFIER_TABLE[t];
+            long error = 0;
+
+            for(int i = 0; i < 16 && error < best_error; i++) {
+                if(getSubBlock(i, flip) != sub) {
+                    continue;
+                }
+
+                int min_error = Integer.MAX_VALUE;
+                for(int m = 0; m < 4; m++) {
+                    int dr = clamp(br + mods[m]) - red[i];
+                    int dg = clamp(bg + mods[m]) - green[i];
+                    int db = clamp(bb + mods[m]) - blue[i];
+                    int e = dr * dr + dg * dg + db * db;
+                    if(e < min_error) {
+                        min_error = e;
+                        sub_pixel_idx[i] = m;
+                    }
+                }
+                error += min_error;
+            }
+
+            if(error < best_error) {
+                best_error = error;
+                table_idx[sub] = t;
+                for(int i = 0; i < 16; i++) {
+                    if(getSubBlock(i, flip) == sub) {
+                        pixel_idx[i] = sub_pixel_idx[i];
+                    }
+                }
+            }
+        }
+
+        return best_error;
+    }
+
+    private static int getSubBlock(int i, boolean flip)
+    {
+        // not flipped: 2x4 left and right, flipped: 4x2 top and bottom
+        return (flip ? (i / 4 >= 2 ? 1 : 0) : (i % 4 >= 2 ? 1 : 0));
+    }
+
+    private static int clamp(int v)
+    {
+        return (v < 0 ? 0 : v > 255 ? 255 : v);
+    }
+}
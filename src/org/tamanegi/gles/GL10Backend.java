@@ -0,0 +1,332 @@
+package org.tamanegi.gles;
+
+import java.nio.ByteBuffer;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.opengl.GLU;
+import android.opengl.GLUtils;
+
+// fixed function pipeline of OpenGL ES 1.x
+class GL10Backend extends GLBackend
+{
+    private GL10 gl;
+    private GL11 gl11;
+    private boolean is_gl11;
+    private boolean has_npot_ext;
+
+    // buffer objects for batch and indexes, or 0 to use client memory
+    private int vertex_buffer = 0;
+    private int index_buffer = 0;
+
+    // current state: to skip redundant changes
+    private boolean cur_texture_enabled;
+    private int cur_tex_id;
+
+    GL10Backend(GL10 gl)
+    {
+        this.gl = gl;
+
+        // buffer objects are available since OpenGL ES 1.1
+        this.gl11 = (gl instanceof GL11 ? (GL11)gl : null);
+    }
+
+    @Override
+    boolean initState()
+    {
+        gl.glDisable(GL10.GL_TEXTURE_2D);
+        gl.glDisable(GL10.GL_CULL_FACE);
+
+        gl.glDisable(GL10.GL_DEPTH_TEST);
+        gl.glDepthMask(false);
+
+        gl.glEnable(GL10.GL_DITHER);
+        gl.glHint(GL10.GL_PERSPECTIVE_CORRECTION_HINT, GL10.GL_NICEST);
+        gl.glShadeModel(GL10.GL_SMOOTH);
+
+        gl.glEnable(GL10.GL_LINE_SMOOTH);
+        gl.glHint(GL10.GL_LINE_SMOOTH_HINT, GL10.GL_NICEST);
+
+        gl.glEnable(GL10.GL_BLEND);
+        gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+        gl.glColorMask(true, true, true, false);
+
+        // projection matrix
+        gl.glMatrixMode(GL10.GL_PROJECTION);
+        gl.glLoadIdentity();
+        gl.glFrustumf(-wratio / 4, wratio / 4,
+                      -1f / 4, 1f / 4,
+                      1, 128);
+
+        // model-view matrix
+        gl.glMatrixMode(GL10.GL_MODELVIEW);
+        gl.glLoadIdentity();
+        GLU.gluLookAt(gl,
+                      0, 0, 4,
+                      0, 0, 0,
+                      0, 1, 0);
+
+        // texture matrix
+        gl.glMatrixMode(GL10.GL_TEXTURE);
+        gl.glLoadIdentity();
+
+        // GL11 interface is implemented even if driver is 1.0
+        String version = gl.glGetString(GL10.GL_VERSION);
+        is_gl11 = (gl11 != null &&
+                   version != null && ! version.contains(" 1.0"));
+
+        String extensions = gl.glGetString(GL10.GL_EXTENSIONS);
+        has_npot_ext =
+            (hasExtension(extensions, "GL_OES_texture_npot") ||
+             hasExtension(extensions, "GL_ARB_texture_non_power_of_two"));
+        has_etc1_ext = hasExtension(extensions, ETC1_EXTENSION);
+
+        // arrays of batch: buffer is not reallocated
+        initBuffers();
+        gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+        gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
+        if(vertex_buffer != 0) {
+            gl11.glVertexPointer(4, GL10.GL_FLOAT, VERTEX_STRIDE,
+                                 POSITION_OFFSET * FLOAT_SIZE);
+            gl11.glTexCoordPointer(2, GL10.GL_FLOAT, VERTEX_STRIDE,
+                                   TEX_COORD_OFFSET * FLOAT_SIZE);
+            gl11.glColorPointer(4, GL10.GL_FLOAT, VERTEX_STRIDE,
+                                COLOR_OFFSET * FLOAT_SIZE);
+        }
+        else {
+            gl.glVertexPointer(4, GL10.GL_FLOAT, VERTEX_STRIDE,
+                               batch_list.position(POSITION_OFFSET));
+            gl.glTexCoordPointer(2, GL10.GL_FLOAT, VERTEX_STRIDE,
+                                 batch_list.position(TEX_COORD_OFFSET));
+            gl.glColorPointer(4, GL10.GL_FLOAT, VERTEX_STRIDE,
+                              batch_list.position(COLOR_OFFSET));
+        }
+
+        gl.glActiveTexture(GL10.GL_TEXTURE0);
+        gl.glTexEnvf(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE,
+                     GL10.GL_MODULATE);
+        cur_texture_enabled = false;
+        cur_tex_id = 0;
+
+        gl.glViewport(0, 0, width, height);
+
+        return true;
+    }
+
+    @Override
+    int genTexture(int tex_id, Bitmap bmp)
+    {
+        // GL_GENERATE_MIPMAP is since 1.1
+        boolean mipmap = (use_mipmap && is_gl11 &&
+                          (has_npot_ext ||
+                           (isPowerOf2(bmp.getWidth()) &&
+                            isPowerOf2(bmp.getHeight()))));
+
+        tex_id = prepareTexture(tex_id, mipmap);
+        GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, bmp, 0);
+
+        return tex_id;
+    }
+
+    @Override
+    int genCompressedTexture(int tex_id, int width, int height,
+                             ByteBuffer etc1_data)
+    {
+        // mipmap can not be generated for compressed texture
+        tex_id = prepareTexture(tex_id, false);
+        gl.glCompressedTexImage2D(GL10.GL_TEXTURE_2D, 0, GL_ETC1_RGB8_OES,
+                                  width, height, 0,
+                                  etc1_data.capacity(),
+                                  etc1_data.position(0));
+
+        return tex_id;
+    }
+
+    private int prepareTexture(int tex_id, boolean mipmap)
+    {
+        if(tex_id < 0) {
+            int[] textures = new int[1];
+            gl.glGenTextures(1, textures, 0);
+            tex_id = textures[0];
+        }
+
+        bindTexture(tex_id);
+
+        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER,
+                           (mipmap ?
+                            GL10.GL_LINEAR_MIPMAP_LINEAR :
+                            GL10.GL_LINEAR));
+        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER,
+                           GL10.GL_LINEAR);
+
+        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S,
+                           GL10.GL_CLAMP_TO_EDGE);
+        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T,
+                           GL10.GL_CLAMP_TO_EDGE);
+
+        if(is_gl11) {
+            gl11.glTexParameterf(GL10.GL_TEXTURE_2D, GL11.GL_GENERATE_MIPMAP,
+                                 (mipmap ? GL10.GL_TRUE : GL10.GL_FALSE));
+        }
+
+        return tex_id;
+    }
+
+    @Override
+    void deleteTexture(int tex_id)
+    {
+        if(cur_tex_id == tex_id) {
+            cur_tex_id = 0;
+        }
+
+        int[] textures = { tex_id };
+        gl.glDeleteTextures(1, textures, 0);
+    }
+
+    @Override
+    void setClipRect(GLMatrix mat, RectF clip_rect)
+    {
+        flush();
+
+        // using depth instead of stencil: some devices has no stencil??
+        gl.glEnable(GL10.GL_DEPTH_TEST);
+
+        gl.glColorMask(false, false, false, false);
+        gl.glDepthMask(true);
+        gl.glDepthFunc(GL10.GL_LESS);
+
+        gl.glClear(GL10.GL_DEPTH_BUFFER_BIT);
+        addQuad(getClipMatrix(mat, clip_rect), 0, 1, 1, 1, 1, 1, 1);
+        flush();
+
+        gl.glColorMask(true, true, true, false);
+        gl.glDepthMask(false);
+        gl.glDepthFunc(GL10.GL_GEQUAL);
+    }
+
+    @Override
+    void clearClipRect()
+    {
+        flush();
+
+        gl.glDisable(GL10.GL_DEPTH_TEST);
+    }
+
+    @Override
+    void drawColor(GLColor color)
+    {
+        flush();
+
+        gl.glColorMask(true, true, true, true);
+        gl.glClearColor(color.red, color.green, color.blue, color.alpha);
+        gl.glClear(GL10.GL_COLOR_BUFFER_BIT);
+        gl.glColorMask(true, true, true, false);
+    }
+
+    @Override
+    int getMaxTextureSize()
+    {
+        int val[] = new int[1];
+        val[0] = 2;
+        gl.glGetIntegerv(GL10.GL_MAX_TEXTURE_SIZE, val, 0);
+        return val[0];
+    }
+
+    @Override
+    boolean isNPOTSupported()
+    {
+        return has_npot_ext;
+    }
+
+    @Override
+    protected boolean isBatchable(int tex_id)
+    {
+        // texturing is enabled or disabled for whole of batch
+        if(batch_cnt == 0) {
+            return true;
+        }
+        return (tex_id == 0 ? batch_tex_id == 0 :
+                (! batch_has_fill && batch_tex_id == tex_id));
+    }
+
+    @Override
+    protected void drawBatch(boolean as_lines)
+    {
+        boolean textured = (batch_tex_id != 0 && ! as_lines);
+        if(textured != cur_texture_enabled) {
+            cur_texture_enabled = textured;
+            if(textured) {
+                gl.glEnable(GL10.GL_TEXTURE_2D);
+            }
+            else {
+                gl.glDisable(GL10.GL_TEXTURE_2D);
+            }
+        }
+        if(textured) {
+            bindTexture(batch_tex_id);
+        }
+
+        if(vertex_buffer != 0) {
+            // only used part of batch
+            gl11.glBufferSubData(GL11.GL_ARRAY_BUFFER, 0,
+                                 batch_cnt * 4 * VERTEX_STRIDE,
+                                 batch_list.position(0));
+        }
+
+        if(as_lines) {
+            gl.glDrawArrays(GL10.GL_LINE_LOOP, 0, 4);
+        }
+        else if(index_buffer != 0) {
+            gl11.glDrawElements(GL10.GL_TRIANGLES, batch_cnt * 6,
+                                GL10.GL_UNSIGNED_SHORT, 0);
+        }
+        else {
+            gl.glDrawElements(GL10.GL_TRIANGLES, batch_cnt * 6,
+                              GL10.GL_UNSIGNED_SHORT, index_list.position(0));
+        }
+    }
+
+    private void initBuffers()
+    {
+        // buffer objects are gone with old context: always create new one
+        vertex_buffer = 0;
+        index_buffer = 0;
+
+        if(! is_gl11) {
+            return;
+        }
+
+        int[] buffers = new int[2];
+        gl11.glGenBuffers(2, buffers, 0);
+        if(buffers[0] == 0 || buffers[1] == 0) {
+            return;
+        }
+        vertex_buffer = buffers[0];
+        index_buffer = buffers[1];
+
+        // indexes are static, vertices are rewritten for each batch
+        gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, index_buffer);
+        gl11.glBufferData(GL11.GL_ELEMENT_ARRAY_BUFFER,
+                          index_list.capacity() * SHORT_SIZE,
+                          index_list.position(0),
+                          GL11.GL_STATIC_DRAW);
+
+        gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, vertex_buffer);
+        gl11.glBufferData(GL11.GL_ARRAY_BUFFER,
+                          batch_list.capacity() * FLOAT_SIZE,
+                          batch_list.position(0),
+                          GL11.GL_DYNAMIC_DRAW);
+    }
+
+    private void bindTexture(int tex_id)
+    {
+        if(tex_id != cur_tex_id) {
+            cur_tex_id = tex_id;
+            gl.glBindTexture(GL10.GL_TEXTURE_2D, tex_id);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package org.tamanegi.gles;
+
+import java.nio.ByteBuffer;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.opengl.Matrix;
+import android.os.Build;
+
+// programmable pipeline of OpenGL ES 2.0:
+//   one program for all of textures and fills in a batch
+class GL20Backend extends GLBackend
+{
+    private static final String VERTEX_SHADER =
+        "uniform mat4 u_view_proj;\n" +
+        "attribute vec4 a_position;\n" +
+        "attribute vec2 a_tex_coord;\n" +
+        "attribute vec4 a_color;\n" +
+        "attribute float a_textured;\n" +
+        "varying vec2 v_tex_coord;\n" +
+        "varying vec4 v_color;\n" +
+        "varying float v_textured;\n" +
+        "void main() {\n" +
+        "  gl_Position = u_view_proj * a_position;\n" +
+        "  v_tex_coord = a_tex_coord;\n" +
+        "  v_color = a_color;\n" +
+        "  v_textured = a_textured;\n" +
+        "}\n";
+
+    private static final String FRAGMENT_SHADER =
+        "precision mediump float;\n" +
+        "uniform sampler2D u_texture;\n" +
+        "uniform vec3 u_color_adjust;\n" +
+        "varying vec2 v_tex_coord;\n" +
+        "varying vec4 v_color;\n" +
+        "varying float v_textured;\n" +
+        "const vec3 luminance = vec3(0.213, 0.715, 0.072);\n" +
+        "void main() {\n" +
+        "  vec4 tex = texture2D(u_texture, v_tex_coord);\n" +
+        "  vec3 c = mix(vec3(dot(tex.rgb, luminance)), tex.rgb,\n" +
+        "               u_color_adjust.x);\n" +
+        "  c = (c - 0.5) * u_color_adjust.z + 0.5 + u_color_adjust.y;\n" +
+        "  tex.rgb = clamp(c, 0.0, 1.0);\n" +
+        "  gl_FragColor = v_color * mix(vec4(1.0), tex, v_textured);\n" +
+        "}\n";
+
+    private int program = 0;
+    private int color_adjust_loc = -1;
+
+    // full support of non power of 2 texture, including mipmap
+    private boolean has_npot_ext = false;
+
+    // buffer objects for batch and indexes, or 0 to use client memory
+    private int vertex_buffer = 0;
+    private int index_buffer = 0;
+
+    // current binding: to skip redundant changes
+    private int cur_tex_id;
+
+    @Override
+    boolean initState()
+    {
+        program = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        if(program == 0) {
+            return false;
+        }
+
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        has_npot_ext = hasExtension(extensions, "GL_OES_texture_npot");
+        has_etc1_ext = hasExtension(extensions, ETC1_EXTENSION);
+
+        GLES20.glDisable(GLES20.GL_CULL_FACE);
+
+        GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+        GLES20.glDepthMask(false);
+
+        GLES20.glEnable(GLES20.GL_DITHER);
+
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA,
+                           GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        GLES20.glColorMask(true, true, true, false);
+
+        // all of the states below are kept while drawing
+        GLES20.glUseProgram(program);
+
+        // projection and view matrix: same as fixed function pipeline
+        float[] proj = new float[16];
+        float[] view = new float[16];
+        float[] view_proj = new float[16];
+        Matrix.frustumM(proj, 0,
+                        -wratio / 4, wratio / 4,
+                        -1f / 4, 1f / 4,
+                        1, 128);
+        Matrix.setLookAtM(view, 0,
+                          0, 0, 4,
+                          0, 0, 0,
+                          0, 1, 0);
+        Matrix.multiplyMM(view_proj, 0, proj, 0, view, 0);
+        GLES20.glUniformMatrix4fv(
+            GLES20.glGetUniformLocation(program, "u_view_proj"),
+            1, false, view_proj, 0);
+
+        // arrays of batch: buffer is not reallocated
+        initBuffers();
+        setAttribPointer("a_position", 4, POSITION_OFFSET);
+        setAttribPointer("a_tex_coord", 2, TEX_COORD_OFFSET);
+        setAttribPointer("a_color", 4, COLOR_OFFSET);
+        setAttribPointer("a_textured", 1, TEXTURED_OFFSET);
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glUniform1i(
+            GLES20.glGetUniformLocation(program, "u_texture"), 0);
+        cur_tex_id = 0;
+
+        color_adjust_loc =
+            GLES20.glGetUniformLocation(program, "u_color_adjust");
+        applyColorAdjust();
+
+        GLES20.glViewport(0, 0, width, height);
+
+        return true;
+    }
+
+    @Override
+    int genTexture(int tex_id, Bitmap bmp)
+    {
+        // mipmap is not allowed for non power of 2 texture by core
+        boolean mipmap = (use_mipmap &&
+                          (has_npot_ext ||
+                           (isPowerOf2(bmp.getWidth()) &&
+                            isPowerOf2(bmp.getHeight()))));
+
+        tex_id = prepareTexture(tex_id, mipmap);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bmp, 0);
+        if(mipmap) {
+            GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+        }
+
+        return tex_id;
+    }
+
+    @Override
+    int genCompressedTexture(int tex_id, int width, int height,
+                             ByteBuffer etc1_data)
+    {
+        // mipmap can not be generated for compressed texture
+        tex_id = prepareTexture(tex_id, false);
+        GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0,
+                                      GL_ETC1_RGB8_OES,
+                                      width, height, 0,
+                                      etc1_data.capacity(),
+                                      etc1_data.position(0));
+
+        return tex_id;
+    }
+
+    private int prepareTexture(int tex_id, boolean mipmap)
+    {
+        if(tex_id < 0) {
+            int[] textures = new int[1];
+            GLES20.glGenTextures(1, textures, 0);
+            tex_id = textures[0];
+        }
+
+        bindTexture(tex_id);
+
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                               GLES20.GL_TEXTURE_MIN_FILTER,
+                               (mipmap ?
+                                GLES20.GL_LINEAR_MIPMAP_LINEAR :
+                                GLES20.GL_LINEAR));
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                               GLES20.GL_TEXTURE_MAG_FILTER,
+                               GLES20.GL_LINEAR);
+
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                               GLES20.GL_TEXTURE_WRAP_S,
+                               GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                               GLES20.GL_TEXTURE_WRAP_T,
+                               GLES20.GL_CLAMP_TO_EDGE);
+
+        return tex_id;
+    }
+
+    @Override
+    void deleteTexture(int tex_id)
+    {
+        if(cur_tex_id == tex_id) {
+            cur_tex_id = 0;
+        }
+
+        int[] textures = { tex_id };
+        GLES20.glDeleteTextures(1, textures, 0);
+    }
+
+    @Override
+    void setClipRect(GLMatrix mat, RectF clip_rect)
+    {
+        flush();
+
+        // using depth instead of stencil: some devices has no stencil??
+        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+
+        GLES20.glColorMask(false, false, false, false);
+        GLES20.glDepthMask(true);
+        GLES20.glDepthFunc(GLES20.GL_LESS);
+
+        GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT);
+        addQuad(getClipMatrix(mat, clip_rect), 0, 1, 1, 1, 1, 1, 1);
+        flush();
+
+        GLES20.glColorMask(true, true, true, false);
+        GLES20.glDepthMask(false);
+        GLES20.glDepthFunc(GLES20.GL_GEQUAL);
+    }
+
+    @Override
+    void clearClipRect()
+    {
+        flush();
+
+        GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+    }
+
+    @Override
+    void drawColor(GLColor color)
+    {
+        flush();
+
+        GLES20.glColorMask(true, true, true, true);
+        GLES20.glClearColor(color.red, color.green, color.blue, color.alpha);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        GLES20.glColorMask(true, true, true, false);
+    }
+
+    @Override
+    int getMaxTextureSize()
+    {
+        int val[] = new int[1];
+        val[0] = 2;
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, val, 0);
+        return val[0];
+    }
+
+    @Override
+    boolean isNPOTSupported()
+    {
+        // core supports non power of 2 texture, except for mipmap
+        return (has_npot_ext || ! use_mipmap);
+    }
+
+    @Override
+    boolean isColorAdjustSupported()
+    {
+        return true;
+    }
+
+    @Override
+    protected void applyColorAdjust()
+    {
+        if(program == 0) {
+            return;
+        }
+
+        GLES20.glUniform3f(color_adjust_loc,
+                           saturation, brightness, contrast);
+    }
+
+    @Override
+    protected boolean isBatchable(int tex_id)
+    {
+        // fill ignores texture: only one texture in a batch
+        return (tex_id == 0 || batch_tex_id == 0 || batch_tex_id == tex_id);
+    }
+
+    @Override
+    protected void drawBatch(boolean as_lines)
+    {
+        if(batch_tex_id != 0) {
+            bindTexture(batch_tex_id);
+        }
+
+        if(vertex_buffer != 0) {
+            // only used part of batch
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0,
+                                   batch_cnt * 4 * VERTEX_STRIDE,
+                                   batch_list.position(0));
+        }
+
+        if(as_lines) {
+            GLES20.glDrawArrays(GLES20.GL_LINE_LOOP, 0, 4);
+        }
+        else if(index_buffer != 0) {
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES, batch_cnt * 6,
+                                  GLES20.GL_UNSIGNED_SHORT, 0);
+        }
+        else {
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES, batch_cnt * 6,
+                                  GLES20.GL_UNSIGNED_SHORT,
+                                  index_list.position(0));
+        }
+    }
+
+    private void initBuffers()
+    {
+        // buffer objects are gone with old context: always create new one
+        vertex_buffer = 0;
+        index_buffer = 0;
+
+        // offset version of glVertexAttribPointer is since API level 9
+        if(Build.VERSION.SDK_INT < 9) {
+            return;
+        }
+
+        int[] buffers = new int[2];
+        GLES20.glGenBuffers(2, buffers, 0);
+        if(buffers[0] == 0 || buffers[1] == 0) {
+            return;
+        }
+        vertex_buffer = buffers[0];
+        index_buffer = buffers[1];
+
+        // indexes are static, vertices are rewritten for each batch
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, index_buffer);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER,
+                            index_list.capacity() * SHORT_SIZE,
+                            index_list.position(0),
+                            GLES20.GL_STATIC_DRAW);
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertex_buffer);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER,
+                            batch_list.capacity() * FLOAT_SIZE,
+                            batch_list.position(0),
+                            GLES20.GL_STREAM_DRAW);
+    }
+
+    private void setAttribPointer(String name, int size, int offset)
+    {
+        int loc = GLES20.glGetAttribLocation(program, name);
+        GLES20.glEnableVertexAttribArray(loc);
+        if(vertex_buffer != 0) {
+            GLES20.glVertexAttribPointer(loc, size, GLES20.GL_FLOAT, false,
+                                         VERTEX_STRIDE, offset * FLOAT_SIZE);
+        }
+        else {
+            GLES20.glVertexAttribPointer(loc, size, GLES20.GL_FLOAT, false,
+                                         VERTEX_STRIDE,
+                                         batch_list.position(offset));
+        }
+    }
+
+    private void bindTexture(int tex_id)
+    {
+        if(tex_id != cur_tex_id) {
+            cur_tex_id = tex_id;
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, tex_id);
+        }
+    }
+
+    private static int createProgram(String vertex_src, String fragment_src)
+    {
+        int vertex_shader =
+            loadShader(GLES20.GL_VERTEX_SHADER, vertex_src);
+        int fragment_shader =
+            loadShader(GLES20.GL_FRAGMENT_SHADER, fragment_src);
+        int prog = 0;
+        if(vertex_shader != 0 && fragment_shader != 0) {
+            prog = GLES20.glCreateProgram();
+        }
+        if(prog == 0) {
+            GLES20.glDeleteShader(vertex_shader);
+            GLES20.glDeleteShader(fragment_shader);
+            return 0;
+        }
+
+        GLES20.glAttachShader(prog, vertex_shader);
+        GLES20.glAttachShader(prog, fragment_shader);
+        GLES20.glLinkProgram(prog);
+
+        // shaders are deleted with the program
+        GLES20.glDeleteShader(vertex_shader);
+        GLES20.glDeleteShader(fragment_shader);
+
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(prog, GLES20.GL_LINK_STATUS, status, 0);
+        if(status[0] != GLES20.GL_TRUE) {
+            GLES20.glDeleteProgram(prog);
+            return 0;
+        }
+
+        return prog;
+    }
+
+    private static int loadShader(int type, String src)
+    {
+        int shader = GLES20.glCreateShader(type);
+        if(shader == 0) {
+            return 0;
+        }
+
+        GLES20.glShaderSource(shader, src);
+        GLES20.glCompileShader(shader);
+
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if(status[0] != GLES20.GL_TRUE) {
+            GLES20.glDeleteShader(shader);
+            return 0;
+        }
+
+        return shader;
+    }
+}
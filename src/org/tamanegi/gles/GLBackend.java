@@ -0,0 +1,297 @@
+package org.tamanegi.gles;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.opengl.Matrix;
+
+// drawing operations of GLCanvas for each version of OpenGL ES API:
+//   quads are transformed and collected into one interleaved array,
+//   and flushed when texture or state changes
+abstract class GLBackend
+{
+    protected static final int FLOAT_SIZE = Float.SIZE / Byte.SIZE;
+    protected static final int SHORT_SIZE = Short.SIZE / Byte.SIZE;
+
+    // vertex: x, y, z, w, s, t, r, g, b, a, textured
+    protected static final int VERTEX_FLOATS = 11;
+    protected static final int VERTEX_STRIDE = VERTEX_FLOATS * FLOAT_SIZE;
+    protected static final int POSITION_OFFSET = 0;
+    protected static final int TEX_COORD_OFFSET = 4;
+    protected static final int COLOR_OFFSET = 6;
+    protected static final int TEXTURED_OFFSET = 10;
+
+    protected static final int BATCH_MAX_QUADS = 64;
+
+    // not defined in GL10 and GLES20
+    protected static final String ETC1_EXTENSION =
+        "GL_OES_compressed_ETC1_RGB8_texture";
+    protected static final int GL_ETC1_RGB8_OES = 0x8d64;
+
+    private static final float[] QUAD_TEX_COORDS = {
+        // s, t,
+        0, 0,
+        1, 0,
+        1, 1,
+        0, 1,
+    };
+
+    protected int width = 1;
+    protected int height = 1;
+    protected float wratio = 1;
+    protected float rect_width = 1;
+    protected float rect_height = 1;
+
+    // build mipmaps when texture is uploaded
+    protected boolean use_mipmap = false;
+
+    // set by initState of each version
+    protected boolean has_etc1_ext = false;
+
+    // color adjustment of textures
+    protected float saturation = 1;
+    protected float brightness = 0;
+    protected float contrast = 1;
+
+    // vertices of the quad which covers screen
+    private float[] quad_coords = new float[3 * 4];
+
+    // current batch
+    private float[] quad_data = new float[VERTEX_FLOATS * 4];
+    protected FloatBuffer batch_list;
+    protected ShortBuffer index_list;
+    protected int batch_cnt = 0;
+    protected int batch_tex_id = 0;     // 0 if no texture in batch
+    protected boolean batch_has_fill = false;
+
+    private float[] work_matrix = new float[16];
+    private float[] clip_matrix = new float[16];
+
+    protected GLBackend()
+    {
+        batch_list = ByteBuffer.allocateDirect(
+            FLOAT_SIZE * VERTEX_FLOATS * 4 * BATCH_MAX_QUADS)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+        index_list = ByteBuffer.allocateDirect(
+            SHORT_SIZE * 3 * 2 * BATCH_MAX_QUADS)
+            .order(ByteOrder.nativeOrder())
+            .asShortBuffer();
+
+        // two triangles for each quad
+        for(int i = 0; i < BATCH_MAX_QUADS; i++) {
+            short base = (short)(i * 4);
+            index_list
+                .put(base).put((short)(base + 1)).put((short)(base + 2))
+                .put((short)(base + 2)).put((short)(base + 3)).put(base);
+        }
+        index_list.position(0);
+    }
+
+    void setSize(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        wratio = (float)width / height;
+        rect_width = (width - 1f) / width;
+        rect_height = (height - 1f) / height;
+
+        float[] vertex_coords = {
+            //    x,   y, z,
+            -wratio, +1f, 0,
+            +wratio, +1f, 0,
+            +wratio, -1f, 0,
+            -wratio, -1f, 0,
+        };
+        System.arraycopy(vertex_coords, 0, quad_coords, 0, quad_coords.length);
+
+        resetBatch();
+    }
+
+    void setUseMipmap(boolean use_mipmap)
+    {
+        this.use_mipmap = use_mipmap;
+    }
+
+    // false if not available on current context
+    abstract boolean initState();
+
+    abstract int genTexture(int tex_id, Bitmap bmp);
+
+    abstract int genCompressedTexture(int tex_id, int width, int height,
+                                      ByteBuffer etc1_data);
+
+    abstract void deleteTexture(int tex_id);
+
+    abstract void setClipRect(GLMatrix mat, RectF clip_rect);
+
+    abstract void clearClipRect();
+
+    abstract void drawColor(GLColor color);
+
+    abstract int getMaxTextureSize();
+
+    // whether non power of 2 texture can be used with current options
+    abstract boolean isNPOTSupported();
+
+    boolean isETC1Supported()
+    {
+        return has_etc1_ext;
+    }
+
+    // whether setColorAdjust takes effect
+    boolean isColorAdjustSupported()
+    {
+        return false;
+    }
+
+    void setColorAdjust(float saturation, float brightness, float contrast)
+    {
+        if(this.saturation == saturation &&
+           this.brightness == brightness &&
+           this.contrast == contrast) {
+            return;
+        }
+
+        // drawn quads use previous values
+        flush();
+
+        this.saturation = saturation;
+        this.brightness = brightness;
+        this.contrast = contrast;
+        applyColorAdjust();
+    }
+
+    // set current color adjustment to context
+    protected void applyColorAdjust()
+    {
+    }
+
+    // whether a quad with tex_id (0 for fill) can join current batch
+    protected abstract boolean isBatchable(int tex_id);
+
+    // draw current batch: as triangles, or as line loop of single quad
+    protected abstract void drawBatch(boolean as_lines);
+
+    void drawRect(GLMatrix mat, GLColor fill_color, GLColor border_color)
+    {
+        // fill
+        if(fill_color != null) {
+            addQuad(mat.get(), 0, 1, 1,
+                    fill_color.red, fill_color.green, fill_color.blue,
+                    fill_color.alpha);
+        }
+
+        // border: lines can not be batched with triangles
+        if(border_color != null) {
+            flush();
+
+            System.arraycopy(mat.get(), 0, work_matrix, 0, 16);
+            Matrix.scaleM(work_matrix, 0, rect_width, rect_height, 0);
+            addQuad(work_matrix, 0, 1, 1,
+                    border_color.red, border_color.green, border_color.blue,
+                    border_color.alpha);
+
+            drawBatch(true);
+            resetBatch();
+        }
+    }
+
+    void drawTexture(GLMatrix mat, int tex_id,
+                     float sratio, float tratio, float alpha, float fade)
+    {
+        addQuad(mat.get(), tex_id, sratio, tratio, fade, fade, fade, alpha);
+    }
+
+    void flush()
+    {
+        if(batch_cnt > 0) {
+            drawBatch(false);
+        }
+        resetBatch();
+    }
+
+    // matrix of the quad which covers clip region
+    protected float[] getClipMatrix(GLMatrix mat, RectF clip_rect)
+    {
+        Matrix.setIdentityM(work_matrix, 0);
+        Matrix.translateM(work_matrix, 0,
+                          clip_rect.centerX(), clip_rect.centerY(), 0);
+        Matrix.scaleM(work_matrix, 0,
+                      Math.abs(clip_rect.width()) / (2 * wratio),
+                      Math.abs(clip_rect.height()) / 2, 1);
+        Matrix.multiplyMM(clip_matrix, 0, work_matrix, 0, mat.get(), 0);
+        Matrix.translateM(clip_matrix, 0, 0, 0, 0.01f);
+        return clip_matrix;
+    }
+
+    protected void addQuad(float[] m, int tex_id, float sratio, float tratio,
+                           float r, float g, float b, float a)
+    {
+        if(batch_cnt >= BATCH_MAX_QUADS || ! isBatchable(tex_id)) {
+            flush();
+        }
+
+        if(tex_id != 0) {
+            batch_tex_id = tex_id;
+        }
+        else {
+            batch_has_fill = true;
+        }
+
+        // transform vertices here, instead of matrix for each draw call
+        float[] data = quad_data;
+        int idx = 0;
+        for(int i = 0; i < 4; i++) {
+            float x = quad_coords[i * 3 + 0];
+            float y = quad_coords[i * 3 + 1];
+            float z = quad_coords[i * 3 + 2];
+
+            data[idx++] = m[0] * x + m[4] * y + m[8]  * z + m[12];
+            data[idx++] = m[1] * x + m[5] * y + m[9]  * z + m[13];
+            data[idx++] = m[2] * x + m[6] * y + m[10] * z + m[14];
+            data[idx++] = m[3] * x + m[7] * y + m[11] * z + m[15];
+            data[idx++] = QUAD_TEX_COORDS[i * 2 + 0] * sratio;
+            data[idx++] = QUAD_TEX_COORDS[i * 2 + 1] * tratio;
+            data[idx++] = r;
+            data[idx++] = g;
+            data[idx++] = b;
+            data[idx++] = a;
+            data[idx++] = (tex_id != 0 ? 1 : 0);
+        }
+
+        batch_list.position(batch_cnt * data.length);
+        batch_list.put(data, 0, data.length);
+        batch_cnt += 1;
+    }
+
+    protected static boolean isPowerOf2(int n)
+    {
+        return (n > 0 && (n & (n - 1)) == 0);
+    }
+
+    protected static boolean hasExtension(String extensions, String name)
+    {
+        if(extensions == null) {
+            return false;
+        }
+
+        for(String ext : extensions.split(" ")) {
+            if(name.equals(ext)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void resetBatch()
+    {
+        batch_cnt = 0;
+        batch_tex_id = 0;
+        batch_has_fill = false;
+    }
+}
@@ -1,9 +1,6 @@
 package org.tamanegi.gles;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 
 import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.egl.EGL11;
@@ -15,14 +12,15 @@ import javax.microedition.khronos.opengles.GL10;
 
 import android.graphics.Bitmap;
 import android.graphics.RectF;
-import android.opengl.GLU;
-import android.opengl.GLUtils;
+import android.os.Build;
 import android.view.SurfaceHolder;
 
 public class GLCanvas
 {
-    private static final int FLOAT_SIZE = Float.SIZE / Byte.SIZE;
-    private static final int SHORT_SIZE = Short.SIZE / Byte.SIZE;
+    // not defined in EGL10
+    private static final int EGL_OPENGL_ES_BIT = 0x0001;
+    private static final int EGL_OPENGL_ES2_BIT = 0x0004;
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
 
     private int red_size = 5;
     private int green_size = 6;
@@ -31,34 +29,21 @@ public class GLCanvas
     private int depth_size = 16;
     private int stencil_size = 0;
 
+    private boolean prefer_gles2 = false;
+    private boolean use_mipmap = false;
+    private boolean is_gles2_failed = false;
+
     private SurfaceHolder holder;
-    private float wratio = 1;
-    private float rect_width = 1;
-    private float rect_height = 1;
+    private int width = 1;
+    private int height = 1;
 
     private EGL10 egl = null;
     private EGLDisplay egl_display = null;
     private EGLContext egl_context = null;
     private EGLSurface egl_surface = null;
 
-    private GL10 gl = null;
-
-    private FloatBuffer vertex_list;
-    private FloatBuffer tex_list;
-    private ShortBuffer index_list;
-
-    public GLCanvas()
-    {
-        vertex_list = ByteBuffer.allocateDirect(FLOAT_SIZE * 3 * 4)
-            .order(ByteOrder.nativeOrder())
-            .asFloatBuffer();
-        tex_list = ByteBuffer.allocateDirect(FLOAT_SIZE * 2 * 4)
-            .order(ByteOrder.nativeOrder())
-            .asFloatBuffer();
-        index_list = ByteBuffer.allocateDirect(SHORT_SIZE * 3 * 2)
-            .order(ByteOrder.nativeOrder())
-            .asShortBuffer();
-    }
+    private boolean is_gles2 = false;
+    private GLBackend backend = null;
 
     public void setConfig(int r, int g, int b, int a, int d, int s)
     {
@@ -70,13 +55,31 @@ public class GLCanvas
         stencil_size = s;
     }
 
+    // use OpenGL ES 2.0 if available, or fallback to 1.x
+    public void setPreferGLES2(boolean prefer)
+    {
+        prefer_gles2 = prefer;
+    }
+
+    // mipmaps with trilinear filtering for textures uploaded after this
+    public void setUseMipmap(boolean use_mipmap)
+    {
+        this.use_mipmap = use_mipmap;
+        if(backend != null) {
+            backend.setUseMipmap(use_mipmap);
+        }
+    }
+
+    public boolean isGLES2()
+    {
+        return (backend != null && is_gles2);
+    }
+
     public void setSurface(SurfaceHolder holder, int width, int height)
     {
         this.holder = holder;
-
-        wratio = (float)width / height;
-        rect_width = (width - 1f) / width;
-        rect_height = (height - 1f) / height;
+        this.width = width;
+        this.height = height;
 
         if(egl != null) {
             destroyGLContext();
@@ -86,9 +89,27 @@ public class GLCanvas
             initGL();
         }
 
-        if(gl != null) {
-            initState();
-            gl.glViewport(0, 0, width, height);
+        initState();
+    }
+
+    private void initState()
+    {
+        if(backend == null) {
+            return;
+        }
+
+        backend.setSize(width, height);
+        if(! backend.initState() && is_gles2) {
+            // shader not available: retry with 1.x
+            is_gles2_failed = true;
+            destroyGLContext();
+            initGLContext();
+            if(backend == null) {
+                return;
+            }
+
+            backend.setSize(width, height);
+            backend.initState();
         }
     }
 
@@ -110,6 +131,18 @@ public class GLCanvas
     }
 
     private void initGLContext()
+    {
+        // android.opengl.GLES20 is available since API level 8
+        if(prefer_gles2 && ! is_gles2_failed && Build.VERSION.SDK_INT >= 8) {
+            if(createGLContext(true)) {
+                return;
+            }
+        }
+
+        createGLContext(false);
+    }
+
+    private boolean createGLContext(boolean use_gles2)
     {
         int config_attrs[] = {
             EGL10.EGL_RED_SIZE, red_size,
@@ -118,24 +151,30 @@ public class GLCanvas
             EGL10.EGL_ALPHA_SIZE, alpha_size,
             EGL10.EGL_DEPTH_SIZE, depth_size,
             EGL10.EGL_STENCIL_SIZE, stencil_size,
+            EGL10.EGL_RENDERABLE_TYPE,
+            (use_gles2 ? EGL_OPENGL_ES2_BIT : EGL_OPENGL_ES_BIT),
+            EGL10.EGL_NONE
+        };
+        int context_attrs[] = {
+            EGL_CONTEXT_CLIENT_VERSION, (use_gles2 ? 2 : 1),
             EGL10.EGL_NONE
         };
 
         int nconf[] = new int[1];
         if(! egl.eglChooseConfig(egl_display, config_attrs,
                                  null, 0, nconf)) {
-            return;
+            return false;
         }
 
         int conf_cnt = nconf[0];
         if(conf_cnt <= 0) {
-            return;
+            return false;
         }
 
         EGLConfig configs[] = new EGLConfig[conf_cnt];
         if(! egl.eglChooseConfig(egl_display, config_attrs,
                                  configs, conf_cnt, nconf)) {
-            return;
+            return false;
         }
 
         for(EGLConfig config : configs) {
@@ -144,7 +183,7 @@ public class GLCanvas
             }
 
             egl_context = egl.eglCreateContext(
-                egl_display, config, EGL10.EGL_NO_CONTEXT, null);
+                egl_display, config, EGL10.EGL_NO_CONTEXT, context_attrs);
             if(egl_context == EGL10.EGL_NO_CONTEXT) {
                 egl_context = null;
                 continue;
@@ -168,15 +207,20 @@ public class GLCanvas
             break;
         }
         if(egl_context == null || egl_surface == null) {
-            return;
+            return false;
         }
 
         if(! egl.eglMakeCurrent(
                egl_display, egl_surface, egl_surface, egl_context)) {
-            return;
+            destroyGLContext();
+            return false;
         }
 
-        gl = (GL10)egl_context.getGL();
+        GL10 gl = (GL10)egl_context.getGL();
+        is_gles2 = use_gles2;
+        backend = (use_gles2 ? new GL20Backend() : new GL10Backend(gl));
+        backend.setUseMipmap(use_mipmap);
+        return true;
     }
 
     private boolean matchConfig(EGLConfig config)
@@ -202,73 +246,6 @@ public class GLCanvas
         return defval;
     }
 
-    private void initState()
-    {
-        if(gl == null) {
-            return;
-        }
-
-        gl.glDisable(GL10.GL_TEXTURE_2D);
-        gl.glDisable(GL10.GL_CULL_FACE);
-
-        gl.glDisable(GL10.GL_DEPTH_TEST);
-        gl.glDepthMask(false);
-
-        gl.glEnable(GL10.GL_DITHER);
-        gl.glHint(GL10.GL_PERSPECTIVE_CORRECTION_HINT, GL10.GL_NICEST);
-        gl.glShadeModel(GL10.GL_SMOOTH);
-
-        gl.glEnable(GL10.GL_LINE_SMOOTH);
-        gl.glHint(GL10.GL_LINE_SMOOTH_HINT, GL10.GL_NICEST);
-
-        gl.glEnable(GL10.GL_BLEND);
-        gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
-        gl.glColorMask(true, true, true, false);
-
-        // projection matrix
-        gl.glMatrixMode(GL10.GL_PROJECTION);
-        gl.glLoadIdentity();
-        gl.glFrustumf(-wratio / 4, wratio / 4,
-                      -1f / 4, 1f / 4,
-                      1, 128);
-
-        // model-view matrix
-        gl.glMatrixMode(GL10.GL_MODELVIEW);
-        gl.glLoadIdentity();
-        GLU.gluLookAt(gl,
-                      0, 0, 4,
-                      0, 0, 0,
-                      0, 1, 0);
-
-        // texture matrix
-        gl.glMatrixMode(GL10.GL_TEXTURE);
-        gl.glLoadIdentity();
-
-        // array of vertex, coord, index
-        float[] vertex_coords = {
-            //    x,   y, z,
-            -wratio, +1f, 0,
-            +wratio, +1f, 0,
-            +wratio, -1f, 0,
-            -wratio, -1f, 0,
-        };
-        float[] tex_coords = {
-            // u, v,
-            0, 0,
-            1, 0,
-            1, 1,
-            0, 1,
-        };
-        short[] indexes = {
-            0, 1, 2,
-            2, 3, 0,
-        };
-
-        vertex_list.put(vertex_coords).position(0);
-        tex_list.put(tex_coords).position(0);
-        index_list.put(indexes).position(0);
-    }
-
     public void terminateGL()
     {
         if(egl_display != null) {
@@ -295,192 +272,97 @@ public class GLCanvas
             egl_context = null;
         }
 
-        gl = null;
+        backend = null;
     }
 
     public int genTexture(int tex_id, Bitmap bmp)
     {
-        if(gl == null) {
+        if(backend == null) {
             return 0;
         }
 
-        gl.glEnable(GL10.GL_TEXTURE_2D);
+        backend.flush();
+        return backend.genTexture(tex_id, bmp);
+    }
 
-        if(tex_id < 0) {
-            int[] textures = new int[1];
-            gl.glGenTextures(1, textures, 0);
-            tex_id = textures[0];
+    // texture from data encoded by ETC1Encoder
+    public int genTexture(int tex_id, int width, int height,
+                          ByteBuffer etc1_data)
+    {
+        if(backend == null) {
+            return 0;
         }
 
-        gl.glActiveTexture(GL10.GL_TEXTURE0);
-        gl.glBindTexture(GL10.GL_TEXTURE_2D, tex_id);
-
-        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER,
-                           GL10.GL_LINEAR);
-        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER,
-                           GL10.GL_LINEAR);
-
-        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S,
-                           GL10.GL_CLAMP_TO_EDGE);
-        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T,
-                           GL10.GL_CLAMP_TO_EDGE);
-
-        gl.glTexEnvf(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE,
-                     GL10.GL_REPLACE);
-
-        GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, bmp, 0);
-
-        gl.glDisable(GL10.GL_TEXTURE_2D);
-
-        return tex_id;
+        backend.flush();
+        return backend.genCompressedTexture(tex_id, width, height, etc1_data);
     }
 
     public void deleteTexture(int tex_id)
     {
-        if(gl == null) {
+        if(backend == null) {
             return;
         }
 
-        int[] textures = { tex_id };
-        gl.glDeleteTextures(1, textures, 0);
+        backend.flush();
+        backend.deleteTexture(tex_id);
     }
 
     public void setClipRect(GLMatrix mat, RectF clip_rect)
     {
-        if(gl == null) {
+        if(backend == null) {
             return;
         }
 
-        gl.glMatrixMode(GL10.GL_MODELVIEW);
-        gl.glPushMatrix();
-        gl.glTranslatef(clip_rect.centerX(), clip_rect.centerY(), 0);
-        gl.glScalef(Math.abs(clip_rect.width()) / (2 * wratio),
-                    Math.abs(clip_rect.height()) / 2, 1);
-        gl.glMultMatrixf(mat.get(), 0);
-        gl.glTranslatef(0, 0, 0.01f);
-
-        // using depth instead of stencil: some devices has no stencil??
-        gl.glEnable(GL10.GL_DEPTH_TEST);
-
-        gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-        gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertex_list.position(0));
-
-        gl.glColorMask(false, false, false, false);
-        gl.glDepthMask(true);
-        gl.glDepthFunc(GL10.GL_LESS);
-
-        gl.glClear(GL10.GL_DEPTH_BUFFER_BIT);
-        gl.glColor4f(1, 1, 1, 1);
-        gl.glDrawElements(GL10.GL_TRIANGLES, 6,
-                          GL10.GL_UNSIGNED_SHORT, index_list.position(0));
-
-        gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
-
-        gl.glColorMask(true, true, true, false);
-        gl.glDepthMask(false);
-        gl.glDepthFunc(GL10.GL_GEQUAL);
-
-        gl.glPopMatrix();
+        backend.setClipRect(mat, clip_rect);
     }
 
     public void clearClipRect()
     {
-        if(gl == null) {
+        if(backend == null) {
             return;
         }
 
-        gl.glDisable(GL10.GL_DEPTH_TEST);
+        backend.clearClipRect();
     }
 
     public void drawColor(GLColor color)
     {
-        if(gl == null) {
+        if(backend == null) {
             return;
         }
 
-        gl.glColorMask(true, true, true, true);
-        gl.glClearColor(color.red, color.green, color.blue, color.alpha);
-        gl.glClear(GL10.GL_COLOR_BUFFER_BIT);
-        gl.glColorMask(true, true, true, false);
+        backend.drawColor(color);
     }
 
     public void drawRect(GLMatrix mat, GLColor fill_color, GLColor border_color)
     {
-        if(gl == null) {
+        if(backend == null) {
             return;
         }
 
-        gl.glMatrixMode(GL10.GL_MODELVIEW);
-        gl.glPushMatrix();
-        gl.glMultMatrixf(mat.get(), 0);
-
-        gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-        gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertex_list.position(0));
-
-        // fill
-        if(fill_color != null) {
-            gl.glColor4f(
-                fill_color.red, fill_color.green, fill_color.blue,
-                fill_color.alpha);
-            gl.glDrawElements(GL10.GL_TRIANGLES, 6,
-                              GL10.GL_UNSIGNED_SHORT, index_list.position(0));
-        }
-
-        // border
-        if(border_color != null) {
-            gl.glScalef(rect_width, rect_height, 0);
-            gl.glColor4f(
-                border_color.red, border_color.green, border_color.blue,
-                border_color.alpha);
-            gl.glDrawArrays(GL10.GL_LINE_LOOP, 0, 4);
-        }
-
-        gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
-
-        gl.glPopMatrix();
+        backend.drawRect(mat, fill_color, border_color);
     }
 
     public void drawTexture(GLMatrix mat, int tex_id,
                             float sratio, float tratio, float alpha, float fade)
     {
-        if(gl == null) {
+        if(backend == null) {
             return;
         }
 
-        gl.glMatrixMode(GL10.GL_TEXTURE);
-        gl.glPushMatrix();
-        gl.glScalef(sratio, tratio, 1);
-
-        gl.glMatrixMode(GL10.GL_MODELVIEW);
-        gl.glPushMatrix();
-        gl.glMultMatrixf(mat.get(), 0);
-
-        gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-        gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertex_list.position(0));
-
-        gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
-        gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, tex_list.position(0));
-
-        // draw texture
-        gl.glEnable(GL10.GL_TEXTURE_2D);
-        gl.glTexEnvf(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE,
-                     GL10.GL_MODULATE);
-        gl.glActiveTexture(GL10.GL_TEXTURE0);
-        gl.glBindTexture(GL10.GL_TEXTURE_2D, tex_id);
-        gl.glColor4f(fade, fade, fade, alpha);
-
-        gl.glDrawElements(GL10.GL_TRIANGLES, 6,
-                          GL10.GL_UNSIGNED_SHORT, index_list.position(0));
-
-        gl.glDisable(GL10.GL_TEXTURE_2D);
-        gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
-        gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+        backend.drawTexture(mat, tex_id, sratio, tratio, alpha, fade);
+    }
 
-        gl.glMatrixMode(GL10.GL_MODELVIEW);
-        gl.glPopMatrix();
+    // color adjustment of following textures:
+    //   brightness is added after contrast is applied around middle gray
+    public void setColorAdjust(float saturation,
+                               float brightness, float contrast)
+    {
+        if(backend == null) {
+            return;
+        }
 
-        gl.glMatrixMode(GL10.GL_TEXTURE);
-        gl.glPopMatrix();
+        backend.setColorAdjust(saturation, brightness, contrast);
     }
 
     public boolean swap()
@@ -489,10 +371,15 @@ public class GLCanvas
             return true;
         }
 
+        if(backend != null) {
+            backend.flush();
+        }
+
         if(! egl.eglSwapBuffers(egl_display, egl_surface)) {
             if(egl.eglGetError() == EGL11.EGL_CONTEXT_LOST) {
                 destroyGLContext();
                 initGLContext();
+                initState();
                 return false;
             }
         }
@@ -500,15 +387,39 @@ public class GLCanvas
         return true;
     }
 
+    public boolean isNPOTSupported()
+    {
+        if(backend == null) {
+            return false;
+        }
+
+        return backend.isNPOTSupported();
+    }
+
+    public boolean isColorAdjustSupported()
+    {
+        if(backend == null) {
+            return false;
+        }
+
+        return backend.isColorAdjustSupported();
+    }
+
+    public boolean isETC1Supported()
+    {
+        if(backend == null) {
+            return false;
+        }
+
+        return backend.isETC1Supported();
+    }
+
     public int getMaxTextureSize()
     {
-        if(gl == null) {
+        if(backend == null) {
             return 2;
         }
 
-        int val[] = new int[1];
-        val[0] = 2;
-        gl.glGetIntegerv(GL10.GL_MAX_TEXTURE_SIZE, val, 0);
-        return val[0];
+        return backend.getMaxTextureSize();
     }
 }
@@ -35,6 +35,23 @@ public class GLColor
              Color.alpha(argb) / (float)0xff);
     }
 
+    public GLColor set(float red, float green, float blue, float alpha)
+    {
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+        this.alpha = alpha;
+        return this;
+    }
+
+    public GLColor set(int argb)
+    {
+        return set(Color.red(argb) / (float)0xff,
+                   Color.green(argb) / (float)0xff,
+                   Color.blue(argb) / (float)0xff,
+                   Color.alpha(argb) / (float)0xff);
+    }
+
     public GLColor setAlpha(float a)
     {
         alpha = a;
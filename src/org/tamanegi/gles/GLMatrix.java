@@ -6,6 +6,10 @@ public class GLMatrix
 {
     private float[] m;
 
+    // scratch for multiplication: not to allocate for each frame
+    private float[] tmp = null;
+    private float[] rot = null;
+
     public GLMatrix()
     {
         m = new float[16];
@@ -30,6 +34,12 @@ public class GLMatrix
         return m;
     }
 
+    public GLMatrix set(GLMatrix mat)
+    {
+        System.arraycopy(mat.m, 0, m, 0, 16);
+        return this;
+    }
+
     public GLMatrix setIdentity()
     {
         Matrix.setIdentityM(m, 0);
@@ -46,10 +56,7 @@ public class GLMatrix
 
     public GLMatrix concat(GLMatrix mat)
     {
-        float[] rm = new float[16];
-        Matrix.multiplyMM(rm, 0, m, 0, mat.m, 0);
-        m = rm;
-        return this;
+        return multiply(mat.m);
     }
 
     public GLMatrix translate(float x, float y, float z)
@@ -60,8 +67,11 @@ public class GLMatrix
 
     public GLMatrix rotate(float a, float x, float y, float z)
     {
-        Matrix.rotateM(m, 0, a, x, y, z);
-        return this;
+        if(rot == null) {
+            rot = new float[16];
+        }
+        Matrix.setRotateM(rot, 0, a, x, y, z);
+        return multiply(rot);
     }
 
     public GLMatrix rotateX(float a)
@@ -84,4 +94,18 @@ public class GLMatrix
         Matrix.scaleM(m, 0, x, y, z);
         return this;
     }
+
+    private GLMatrix multiply(float[] rm)
+    {
+        if(tmp == null) {
+            tmp = new float[16];
+        }
+        Matrix.multiplyMM(tmp, 0, m, 0, rm, 0);
+
+        // swap result and scratch
+        float[] t = m;
+        m = tmp;
+        tmp = t;
+        return this;
+    }
 }
@@ -0,0 +1,183 @@
+package org.tamanegi.wallpaper.multipicture;
+
+import java.util.Arrays;
+
+import android.graphics.Bitmap;
+
+public class BackgroundColorDetector
+{
+    private static final int EDGE_RATIO = 10;
+    private static final int EMPTY = -1;
+
+    private int width;
+    private int height;
+    private int rey;
+
+    private int[] row = null;
+    private int[] col_weight = null;
+
+    // most significant color in [0x000...0xfff]
+    private int[] cnt = new int[0x1000];
+
+    // count of each 24-bit color: open addressing hash
+    private int[] color_key = null;
+    private int[] color_cnt = null;
+
+    public int detect(Bitmap bmp, float xratio, float yratio)
+    {
+        int w = bmp.getWidth();
+        int h = bmp.getHeight();
+
+        start(w, h, xratio, yratio);
+
+        if(row == null || row.length < w) {
+            row = new int[w];
+        }
+        for(int y = 0; y < h; y++) {
+            bmp.getPixels(row, 0, w, 0, y, w, 1);
+            addRow(row, 0, y);
+        }
+
+        return getColor();
+    }
+
+    public int detect(int[] pixels, int w, int h, float xratio, float yratio)
+    {
+        start(w, h, xratio, yratio);
+
+        for(int y = 0; y < h; y++) {
+            addRow(pixels, y * w, y);
+        }
+
+        return getColor();
+    }
+
+    private void start(int w, int h, float xratio, float yratio)
+    {
+        width = w;
+        height = h;
+
+        final int rex = (xratio < 1 ? 200 : 100);
+        rey = (yratio < 1 ? 200 : 100);
+
+        // weight of each column
+        if(col_weight == null || col_weight.length < w) {
+            col_weight = new int[w];
+        }
+        for(int x = 0; x < w; x++) {
+            int rx = 0;
+            if(x < w / EDGE_RATIO) {
+                rx = (w - x * EDGE_RATIO) * rex / w;
+            }
+            else if(x > w * (EDGE_RATIO - 1) / EDGE_RATIO) {
+                rx = (x * EDGE_RATIO - w * (EDGE_RATIO - 1)) * rex / w;
+            }
+            col_weight[x] = rx;
+        }
+
+        Arrays.fill(cnt, 0);
+
+        // at most w * h colors: keep load factor less than 1/2
+        int size = Integer.highestOneBit(Math.max(w * h, 1)) * 4;
+        if(color_key == null || color_key.length < size) {
+            color_key = new int[size];
+            color_cnt = new int[size];
+        }
+        Arrays.fill(color_key, EMPTY);
+    }
+
+    private void addRow(int[] pixels, int offset, int y)
+    {
+        int w = width;
+        int h = height;
+
+        int ry = 0;
+        if(y < h / EDGE_RATIO) {
+            ry = (h - y * EDGE_RATIO) * rey / h;
+        }
+        else if(y > h * (EDGE_RATIO - 1) / EDGE_RATIO) {
+            ry = (y * EDGE_RATIO - h * (EDGE_RATIO - 1)) * rey / h;
+        }
+
+        int[] keys = color_key;
+        int[] cnts = color_cnt;
+        int mask = keys.length - 1;
+
+        for(int x = 0; x < w; x++) {
+            int c = pixels[offset + x];
+            int weight = 10 + col_weight[x] + ry;
+
+            // coarse
+            cnt[getCoarseColor(c)] += weight;
+
+            // detailed
+            int key = c & 0xffffff;
+            int slot = getHash(key) & mask;
+            while(keys[slot] != key) {
+                if(keys[slot] == EMPTY) {
+                    keys[slot] = key;
+                    cnts[slot] = 0;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            cnts[slot] += weight;
+        }
+    }
+
+    private int getColor()
+    {
+        // search max
+        int base_color = 0;
+        for(int i = 1; i < cnt.length; i++) {
+            if(cnt[base_color] < cnt[i]) {
+                base_color = i;
+            }
+        }
+
+        // search max in base color
+        int detail_color = 0;
+        int detail_cnt = 0;
+        for(int i = 0; i < color_key.length; i++) {
+            int key = color_key[i];
+            if(key == EMPTY || getCoarseColor(key) != base_color) {
+                continue;
+            }
+
+            int cd = getDetailColor(key);
+            if(detail_cnt < color_cnt[i] ||
+               (detail_cnt == color_cnt[i] && cd < detail_color)) {
+                detail_color = cd;
+                detail_cnt = color_cnt[i];
+            }
+        }
+
+        int color = (((base_color & 0xf00) << 12) |
+                     ((base_color & 0x0f0) <<  8) |
+                     ((base_color & 0x00f) <<  4) |
+                     ((detail_color & 0xf00) << 8) |
+                     ((detail_color & 0x0f0) << 4) |
+                     ((detail_color & 0x00f) << 0));
+        return color;
+    }
+
+    private static int getCoarseColor(int c)
+    {
+        return ((c >> 12) & 0xf00 |
+                (c >>  8) & 0x0f0 |
+                (c >>  4) & 0x00f);
+    }
+
+    private static int getDetailColor(int c)
+    {
+        return ((c >>  8) & 0xf00 |
+                (c >>  4) & 0x0f0 |
+                (c >>  0) & 0x00f);
+    }
+
+    private static int getHash(int key)
+    {
+        int h = key * 0x9e3779b1;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,116 @@
+package org.tamanegi.wallpaper.multipicture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class BackgroundColorIndex
+{
+    private static final int MAGIC = 0x4d504243; // "MPBC"
+    private static final int VERSION = 1;
+
+    // record: hash of key (8 bytes), color (4 bytes), valid mark (4 bytes)
+    private static final int RECORD_SIZE = 16;
+    private static final int RECORD_CNT = 4096;
+    private static final int HEADER_SIZE = RECORD_SIZE;
+    private static final int VALID_MARK = 0x56414c44; // "VALD"
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private File file;
+    private MappedByteBuffer buf = null;
+    private boolean is_opened = false;
+
+    public BackgroundColorIndex(File file)
+    {
+        this.file = file;
+    }
+
+    // returns color, or -1 if not found
+    public synchronized long get(String key)
+    {
+        if(! open()) {
+            return -1;
+        }
+
+        long hash = getHash(key);
+        int pos = getPosition(hash);
+        if(buf.getLong(pos) != hash || buf.getInt(pos + 12) != VALID_MARK) {
+            return -1;
+        }
+
+        return (buf.getInt(pos + 8) & 0xffffffffL);
+    }
+
+    public synchronized void put(String key, int color)
+    {
+        if(! open()) {
+            return;
+        }
+
+        long hash = getHash(key);
+        int pos = getPosition(hash);
+        buf.putInt(pos + 12, 0);
+        buf.putLong(pos, hash);
+        buf.putInt(pos + 8, color);
+        buf.putInt(pos + 12, VALID_MARK);
+    }
+
+    private boolean open()
+    {
+        if(is_opened) {
+            return (buf != null);
+        }
+        is_opened = true;
+
+        int size = HEADER_SIZE + RECORD_SIZE * RECORD_CNT;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                boolean is_new = (raf.length() != size);
+                raf.setLength(size);
+                buf = raf.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, 0, size);
+
+                if(is_new ||
+                   buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+                    // initialize
+                    for(int i = 0; i < size; i += 4) {
+                        buf.putInt(i, 0);
+                    }
+                    buf.putInt(0, MAGIC);
+                    buf.putInt(4, VERSION);
+                }
+            }
+            finally {
+                // mapping is still valid after close
+                raf.close();
+            }
+        }
+        catch(IOException e) {
+            buf = null;
+        }
+
+        return (buf != null);
+    }
+
+    private static int getPosition(long hash)
+    {
+        int idx = (int)((hash >>> 1) % RECORD_CNT);
+        return HEADER_SIZE + idx * RECORD_SIZE;
+    }
+
+    private static long getHash(String key)
+    {
+        // FNV-1a
+        long hash = FNV_OFFSET;
+        for(int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
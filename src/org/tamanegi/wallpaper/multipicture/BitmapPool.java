@@ -0,0 +1,118 @@
+package org.tamanegi.wallpaper.multipicture;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+public class BitmapPool
+{
+    private LinkedList<Bitmap> pool;   // least recently used first
+    private int max_bytes;
+    private int cur_bytes;
+
+    public BitmapPool()
+    {
+        pool = new LinkedList<Bitmap>();
+        max_bytes = 0;
+        cur_bytes = 0;
+    }
+
+    public synchronized void setMaxSize(int max_bytes)
+    {
+        this.max_bytes = max_bytes;
+        trimTo(max_bytes);
+    }
+
+    // bitmap which has exactly same size and config
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config)
+    {
+        for(Iterator<Bitmap> i = pool.iterator(); i.hasNext(); ) {
+            Bitmap bmp = i.next();
+            if(bmp.getWidth() == width && bmp.getHeight() == height &&
+               bmp.getConfig() == config) {
+                i.remove();
+                cur_bytes -= getBytes(bmp);
+                return bmp;
+            }
+        }
+
+        return null;
+    }
+
+    // bitmap which can be used for BitmapFactory.Options#inBitmap
+    public synchronized Bitmap getForDecode(int width, int height,
+                                            Bitmap.Config config)
+    {
+        if(! isDecodeReuseSupported()) {
+            return null;
+        }
+        if(Build.VERSION.SDK_INT < 19) {
+            // same size only
+            return get(width, height, config);
+        }
+
+        // large enough bitmap can be reconfigured
+        int bytes = width * height * getBytesPerPixel(config);
+        for(Iterator<Bitmap> i = pool.iterator(); i.hasNext(); ) {
+            Bitmap bmp = i.next();
+            if(getBytes(bmp) >= bytes) {
+                i.remove();
+                cur_bytes -= getBytes(bmp);
+                return bmp;
+            }
+        }
+
+        return null;
+    }
+
+    public synchronized void put(Bitmap bmp)
+    {
+        if(bmp == null || bmp.isRecycled()) {
+            return;
+        }
+
+        int bytes = getBytes(bmp);
+        if(! bmp.isMutable() || bytes > max_bytes) {
+            bmp.recycle();
+            return;
+        }
+
+        trimTo(max_bytes - bytes);
+        pool.addLast(bmp);
+        cur_bytes += bytes;
+    }
+
+    public synchronized void clear()
+    {
+        trimTo(0);
+    }
+
+    public static boolean isDecodeReuseSupported()
+    {
+        // BitmapFactory.Options#inBitmap is available since API level 11
+        return (Build.VERSION.SDK_INT >= 11);
+    }
+
+    private void trimTo(int bytes)
+    {
+        while(cur_bytes > bytes && ! pool.isEmpty()) {
+            Bitmap bmp = pool.removeFirst();
+            cur_bytes -= getBytes(bmp);
+            bmp.recycle();
+        }
+    }
+
+    private static int getBytes(Bitmap bmp)
+    {
+        return bmp.getRowBytes() * bmp.getHeight();
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config)
+    {
+        return (config == Bitmap.Config.ARGB_8888 ? 4 :
+                config == Bitmap.Config.ALPHA_8 ? 1 :
+                2);
+    }
+}
@@ -0,0 +1,36 @@
+package org.tamanegi.wallpaper.multipicture;
+
+// parameters of one decode:
+//   copied with lock of screen when the decode is requested,
+//   and never modified after that
+public class DecodeParams
+{
+    public final float clip_ratio;
+    public final float saturation;
+    public final boolean detect_bgcolor;
+    public final int bgcolor;
+    public final boolean compress_texture;
+
+    // limits of texture and memory
+    public final boolean use_npot_texture;
+    public final int max_texture_size;
+    public final int max_screen_pixels;
+    public final int max_work_pixels;
+
+    public DecodeParams(float clip_ratio, float saturation,
+                        boolean detect_bgcolor, int bgcolor,
+                        boolean compress_texture, boolean use_npot_texture,
+                        int max_texture_size,
+                        int max_screen_pixels, int max_work_pixels)
+    {
+        this.clip_ratio = clip_ratio;
+        this.saturation = saturation;
+        this.detect_bgcolor = detect_bgcolor;
+        this.bgcolor = bgcolor;
+        this.compress_texture = compress_texture;
+        this.use_npot_texture = use_npot_texture;
+        this.max_texture_size = max_texture_size;
+        this.max_screen_pixels = max_screen_pixels;
+        this.max_work_pixels = max_work_pixels;
+    }
+}
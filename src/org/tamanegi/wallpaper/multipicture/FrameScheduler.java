@@ -0,0 +1,115 @@
+package org.tamanegi.wallpaper.multipicture;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+// schedule frames on display vsync:
+//   requests until next frame are coalesced into one frame,
+//   should be used only on the thread of handler
+public class FrameScheduler
+{
+    // for devices without Choreographer
+    private static final int FALLBACK_FRAME_INTERVAL = 16; // msec
+
+    public interface Callback
+    {
+        public void onFrame();
+    }
+
+    private Handler handler;
+    private Callback callback;
+    private VsyncSource vsync = null;
+
+    private boolean is_pending = false;
+    private long pending_time = 0;
+    private long last_frame_time = 0;
+
+    private Runnable frame_runnable = new Runnable() {
+            public void run() {
+                doFrame();
+            }
+        };
+
+    public FrameScheduler(Handler handler, Callback callback)
+    {
+        this.handler = handler;
+        this.callback = callback;
+    }
+
+    // next frame
+    public void requestFrame()
+    {
+        requestFrameAt(0);
+    }
+
+    // first frame at or after uptime
+    public void requestFrameAt(long uptime)
+    {
+        if(is_pending && pending_time <= uptime) {
+            // earlier frame is already requested
+            return;
+        }
+
+        cancel();
+        is_pending = true;
+        pending_time = uptime;
+
+        long now = SystemClock.uptimeMillis();
+        if(Build.VERSION.SDK_INT >= 16) {
+            if(vsync == null) {
+                // Choreographer of current thread
+                vsync = new VsyncSource();
+            }
+            vsync.post(Math.max(0, uptime - now));
+        }
+        else {
+            handler.postAtTime(
+                frame_runnable,
+                Math.max(uptime, last_frame_time + FALLBACK_FRAME_INTERVAL));
+        }
+    }
+
+    public void cancel()
+    {
+        if(! is_pending) {
+            return;
+        }
+        is_pending = false;
+
+        if(vsync != null) {
+            vsync.cancel();
+        }
+        handler.removeCallbacks(frame_runnable);
+    }
+
+    private void doFrame()
+    {
+        is_pending = false;
+        last_frame_time = SystemClock.uptimeMillis();
+        callback.onFrame();
+    }
+
+    // separated not to load Choreographer before API level 16
+    private class VsyncSource implements Choreographer.FrameCallback
+    {
+        private Choreographer choreographer = Choreographer.getInstance();
+
+        private void post(long delay)
+        {
+            choreographer.postFrameCallbackDelayed(this, delay);
+        }
+
+        private void cancel()
+        {
+            choreographer.removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frame_time_nanos)
+        {
+            FrameScheduler.this.doFrame();
+        }
+    }
+}
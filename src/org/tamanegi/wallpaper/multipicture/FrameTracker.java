@@ -0,0 +1,90 @@
+package org.tamanegi.wallpaper.multipicture;
+
+// detect frames which are same as last drawn one:
+//   state of each frame is recorded between begin() and commit()
+public class FrameTracker
+{
+    private long[] cur_state = new long[32];
+    private long[] last_state = new long[32];
+    private int cur_cnt = 0;
+    private int last_cnt = -1;
+    private boolean is_invalidated = true;
+
+    private volatile int drawn_cnt = 0;
+    private volatile int skipped_cnt = 0;
+
+    // next frame will be drawn regardless of state
+    public void invalidate()
+    {
+        is_invalidated = true;
+    }
+
+    public void begin()
+    {
+        cur_cnt = 0;
+    }
+
+    public void add(long val)
+    {
+        if(cur_cnt >= cur_state.length) {
+            long[] state = new long[cur_state.length * 2];
+            System.arraycopy(cur_state, 0, state, 0, cur_cnt);
+            cur_state = state;
+        }
+        cur_state[cur_cnt++] = val;
+    }
+
+    public void add(float val)
+    {
+        add((long)Float.floatToIntBits(val));
+    }
+
+    public void add(boolean val)
+    {
+        add(val ? 1L : 0L);
+    }
+
+    // true if the frame should be drawn: the state is kept as drawn one
+    public boolean commit()
+    {
+        if(! is_invalidated && isSameState()) {
+            skipped_cnt += 1;
+            return false;
+        }
+
+        // swap instead of copy
+        long[] state = last_state;
+        last_state = cur_state;
+        last_cnt = cur_cnt;
+        cur_state = (state.length >= last_state.length ? state :
+                     new long[last_state.length]);
+
+        is_invalidated = false;
+        drawn_cnt += 1;
+        return true;
+    }
+
+    public int getDrawnFrameCount()
+    {
+        return drawn_cnt;
+    }
+
+    public int getSkippedFrameCount()
+    {
+        return skipped_cnt;
+    }
+
+    private boolean isSameState()
+    {
+        if(cur_cnt != last_cnt) {
+            return false;
+        }
+
+        for(int i = 0; i < cur_cnt; i++) {
+            if(cur_state[i] != last_state[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
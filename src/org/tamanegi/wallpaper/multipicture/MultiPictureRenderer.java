@@ -1,17 +1,29 @@
 package org.tamanegi.wallpaper.multipicture;
 
-import java.io.InputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
-
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.tamanegi.gles.ETC1Encoder;
 import org.tamanegi.gles.GLCanvas;
 import org.tamanegi.gles.GLColor;
 import org.tamanegi.gles.GLMatrix;
-import org.tamanegi.wallpaper.multipicture.picsource.AlbumPickService;
-import org.tamanegi.wallpaper.multipicture.picsource.FolderPickService;
-import org.tamanegi.wallpaper.multipicture.picsource.SinglePickService;
+import org.tamanegi.wallpaper.multipicture.picsource.PictureUtils;
 import org.tamanegi.wallpaper.multipicture.plugin.LazyPickerClient;
 import org.tamanegi.wallpaper.multipicture.plugin.PictureContentInfo;
 import org.tamanegi.wallpaper.multipicture.plugin.ScreenInfo;
@@ -30,7 +42,6 @@ import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.ColorMatrix;
 import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Matrix;
@@ -48,38 +59,42 @@ import android.os.Process;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.FloatMath;
+import android.util.Log;
 import android.view.SurfaceHolder;
-import android.view.WindowManager;
 
 public class MultiPictureRenderer
 {
+    private static final String TAG = "MultiPictureRenderer";
+
     // message id: for drawer
     private static final int MSG_INIT = 1;
     private static final int MSG_DESTROY = 2;
     private static final int MSG_SHOW = 3;
     private static final int MSG_HIDE = 4;
     private static final int MSG_DRAW = 10;
-    private static final int MSG_DRAW_STEP = 11;
-    private static final int MSG_DRAW_DELAYED = 12;
     private static final int MSG_PREF_CHANGED = 20;
     private static final int MSG_PREF_CHANGED_NORELOAD = 21;
     private static final int MSG_OFFSET_CHANGED = 22;
     private static final int MSG_SURFACE_CHANGED = 23;
     private static final int MSG_KEYGUARD_CHANGED = 24;
+    private static final int MSG_PREF_CHANGED_SCREEN = 25;
     private static final int MSG_CHANGE_PIC_BY_TAP = 30;
     private static final int MSG_CHANGE_PIC_BY_TIME = 31;
+    private static final int MSG_PREFETCH_PIC = 32;
+    private static final int MSG_CHANGE_PIC_BY_NOTIFY = 33;
     private static final int MSG_CHANGE_PACKAGE_AVAIL = 40;
     private static final int MSG_LOW_MEMORY = 60;
 
     // message id: for loader
     private static final int MSG_UPDATE_SCREEN = 1001;
+    private static final int MSG_APPLY_SCREEN = 1002;
+    private static final int MSG_APPLY_PENDING = 1003;
 
     // animation params
     private static final int FADE_FRAME_DURATION = 70;      // msec
-    private static final int FADE_TOTAL_DURATION = 500;     // msec
-    private static final int BLACKOUT_TOTAL_DURATION = 500; // msec
     private static final int SPINNER_FRAME_DURATION = 120;  // msec
     private static final int SPINNER_TOTAL_FRAMES = 8;      // count
+    private static final int MAX_STEP_DURATION = 200;       // msec
     private static final int BORDER_COLOR = 0x3f3f3f;
 
     // transition params
@@ -95,6 +110,27 @@ public class MultiPictureRenderer
 
     private static final int MEMORY_SIZE_OFFSET = 8;
 
+    // parallel decode
+    private static final int MAX_LOADER_THREADS = 4;
+    private static final int MEMORY_SIZE_PER_LOADER = 8; // MB
+    private static final float KEYGUARD_LOAD_PRIORITY = 1000;
+
+    // prefetch next pictures
+    private static final int PREFETCH_LEAD_TIME = 10000; // msec
+    private static final int PREFETCH_MEMORY_RATIO = 4; // 1/4 of max memory
+    private static final float PREFETCH_LOAD_PRIORITY = 2000;
+
+    // reusable bitmaps
+    private static final int BYTES_PER_MB = 1024 * 1024;
+    private static final int BITMAP_POOL_RATIO = 4; // 1/4 of max memory
+    private static final int DEFAULT_BITMAP_POOL_SIZE = 8 * BYTES_PER_MB;
+
+    // prepared texture cache
+    private static final String TEXTURE_CACHE_DIR = "texture";
+
+    // detected background color index
+    private static final String BGCOLOR_INDEX_FILE = "bgcolor.idx";
+
     // for broadcast intent
     private static final String ACTION_CHANGE_PICTURE =
         "org.tamanegi.wallpaper.multipicture.CHANGE_PICTURE";
@@ -109,10 +145,33 @@ public class MultiPictureRenderer
         "draw.transition",
         "draw.reflection.top",
         "draw.reflection",
+        "cache.texture.max",
+    };
+
+    // per screen preference keys:
+    //   keys not listed here restart picture source of the screen
+    private static final String[] REDRAW_SCREEN_KEYS = {
+        MultiPictureSetting.SCREEN_OPACITY_KEY,
+    };
+    private static final String[] GPU_COLOR_SCREEN_KEYS = {
+        MultiPictureSetting.SCREEN_SATURATION_KEY,
+    };
+    private static final String[] TEXTURE_SCREEN_KEYS = {
+        MultiPictureSetting.SCREEN_CLIP_KEY,
+        MultiPictureSetting.SCREEN_BGCOLOR_KEY,
+        MultiPictureSetting.SCREEN_BGCOLOR_CUSTOM_KEY,
+    };
+    private static final String[] RELOAD_SCREEN_KEYS = {
+        MultiPictureSetting.SCREEN_ENABLE_KEY,
     };
 
+    // invalidation for changed per screen preference
+    private static final int INVALIDATE_REDRAW = 0;
+    private static final int INVALIDATE_TEXTURE = 1;
+    private static final int INVALIDATE_PICSOURCE = 2;
+
     // transitions
-    private static enum TransitionType
+    static enum TransitionType
     {
         none, random,
             slide, crossfade, fade_inout,
@@ -150,14 +209,8 @@ public class MultiPictureRenderer
             TransitionType.bookshelf,
         });
 
-    // screen types: for backward compatible
-    private static enum ScreenType
-    {
-        file, folder, buckets, use_default
-    }
-
     // louncher workaround type
-    private static enum LauncherWorkaroundType
+    static enum LauncherWorkaroundType
     {
         none,
             force_5screen, force_7screen,
@@ -166,14 +219,6 @@ public class MultiPictureRenderer
             no_vertical
     }
 
-    // picture status
-    private static enum PictureStatus
-    {
-        NOT_AVAILABLE,                          // no pic
-            NORMAL,                             // normal picture
-            FADEOUT, BLACKOUT, SPINNER, FADEIN, // progress
-    }
-
     // texture id, and aspect ratio
     private static class TextureInfo
     {
@@ -184,6 +229,11 @@ public class MultiPictureRenderer
         private int bwidth;
         private int bheight;
 
+        // compressed instead of bmp
+        private ByteBuffer etc1_data = null;
+        private int etc1_width;
+        private int etc1_height;
+
         private int tex_id = -1;
         private float sratio;
         private float tratio;
@@ -193,13 +243,13 @@ public class MultiPictureRenderer
     }
 
     // params for each screen
-    private static class PictureInfo
+    //   status and texture are owned by drawer thread,
+    //   other shared fields are guarded by lock of each instance
+    private static class PictureInfo extends ScreenState<ContentUpdateInfo>
     {
-        private PictureStatus status;
-        private int progress;
-        private int loading_cnt;
+        private AtomicInteger loading_cnt = new AtomicInteger();
 
-        private PictureContentInfo cur_content;
+        private volatile PictureContentInfo cur_content;
         private ComponentName picsource_service;
         private String picsource_key;
         private boolean picsource_need_restart;
@@ -207,7 +257,11 @@ public class MultiPictureRenderer
 
         private boolean is_update_pending;
 
-        private TextureInfo tex_info;
+        private volatile TextureInfo tex_info;
+        private List<ContentUpdateInfo> loads;
+
+        private ContentUpdateInfo prefetch;
+        private boolean is_prefetch_waiting;
 
         private boolean detect_bgcolor;
         private int bgcolor;
@@ -215,20 +269,6 @@ public class MultiPictureRenderer
         private float clip_ratio;
         private float saturation;
         private float opacity;
-
-        private void setStatus(PictureStatus status)
-        {
-            if((status == PictureStatus.FADEOUT &&
-                this.status == PictureStatus.FADEIN) ||
-               (status == PictureStatus.FADEIN &&
-                this.status == PictureStatus.FADEOUT)) {
-                progress = Math.max(FADE_TOTAL_DURATION - progress, 1);
-            }
-            else {
-                progress = 1;
-            }
-            this.status = status;
-        }
     }
 
     // transition effect info
@@ -236,9 +276,84 @@ public class MultiPictureRenderer
     {
         private GLMatrix matrix = new GLMatrix();
         private RectF clip_rect = null;
+        private RectF clip_rect_buf = new RectF();
         private float alpha = 1;
         private float fill_background = 0;
         private boolean need_border = false;
+
+        private EffectInfo reset()
+        {
+            matrix.setIdentity();
+            clip_rect = null;
+            alpha = 1;
+            fill_background = 0;
+            need_border = false;
+            return this;
+        }
+
+        private RectF setClipRect(float left, float top,
+                                  float right, float bottom)
+        {
+            clip_rect_buf.set(left, top, right, bottom);
+            clip_rect = clip_rect_buf;
+            return clip_rect;
+        }
+    }
+
+    // delta for each screen
+    private class ScreenDelta implements Comparable<ScreenDelta>
+    {
+        private PictureInfo pic_info;
+        private float dx;
+        private float dy;
+        private float dz;
+        private float fade;
+        private float xpos;
+        private boolean visible;
+        private boolean for_lock;
+
+        private void set(PictureInfo pic_info, float dx, float dy, float xpos,
+                         boolean for_lock)
+        {
+            this.pic_info = pic_info;
+            this.dx = dx;
+            this.dy = dy;
+            this.xpos = xpos;
+            this.for_lock = for_lock;
+
+            float fade_r =
+                ((pic_info.status == PictureStatus.NOT_AVAILABLE ||
+                  pic_info.status == PictureStatus.SPINNER ||
+                  pic_info.status == PictureStatus.NORMAL) ?
+                 ScreenState.FADE_TOTAL_DURATION :
+                 pic_info.status == PictureStatus.FADEIN ?
+                 pic_info.progress :
+                 pic_info.status == PictureStatus.FADEOUT ?
+                 ScreenState.FADE_TOTAL_DURATION - pic_info.progress :
+                 0) / (float)ScreenState.FADE_TOTAL_DURATION;
+            float fade_k =
+                ratioRange(for_lock ? 1 - keyguard_dx * 2 :
+                           keyguard_dx * 2 - 1);
+
+            dz = fade_k;
+            fade = ratioRange(fade_r) * fade_k;
+            visible = (for_lock ? is_keyguard_visible : true);
+        }
+
+        @Override
+        public int compareTo(ScreenDelta o2)
+        {
+            if(for_lock != o2.for_lock) {
+                return (for_lock ? +1 : -1);
+            }
+
+            // reverse order
+            float d1 = Math.abs(this.dx) + Math.abs(this.dy);
+            float d2 = Math.abs(o2.dx) + Math.abs(o2.dy);
+            return (d1 < d2 ? +1 :
+                    d1 > d2 ? -1 :
+                    0);
+        }
     }
 
     // offset info
@@ -264,6 +379,24 @@ public class MultiPictureRenderer
         }
     }
 
+    // screen position for load priority: published by drawer
+    private static class ScreenPosition
+    {
+        private final int xcnt;
+        private final float xcur;
+        private final float ycur;
+        private final boolean is_in_keyguard;
+
+        private ScreenPosition(int xcnt, float xcur, float ycur,
+                               boolean is_in_keyguard)
+        {
+            this.xcnt = xcnt;
+            this.xcur = xcur;
+            this.ycur = ycur;
+            this.is_in_keyguard = is_in_keyguard;
+        }
+    }
+
     // size info
     private static class SurfaceInfo
     {
@@ -290,6 +423,16 @@ public class MultiPictureRenderer
         private PictureContentInfo content;
         private boolean force_reload;
 
+        private int seq;
+        private LoadToken token = null;
+        private boolean is_finished = false;
+        private boolean is_prefetch = false;
+        private boolean is_prefetch_requested = false;
+        private int width;
+        private int height;
+        private DecodeParams params = null;
+        private TextureInfo tex_info = null;
+
         private ContentUpdateInfo(
             int idx, PictureInfo pic_info,
             PictureContentInfo content, boolean force_reload)
@@ -301,6 +444,126 @@ public class MultiPictureRenderer
         }
     }
 
+    // cancellation of superseded load
+    private static class LoadToken
+    {
+        private volatile boolean is_cancelled = false;
+        private BitmapFactory.Options opt = null;
+
+        private synchronized void cancel()
+        {
+            is_cancelled = true;
+            if(opt != null) {
+                opt.requestCancelDecode();
+            }
+        }
+
+        private boolean isCancelled()
+        {
+            return is_cancelled;
+        }
+
+        // options of running decode: cancel it in the middle
+        private synchronized void setOptions(BitmapFactory.Options opt)
+        {
+            this.opt = opt;
+            if(is_cancelled && opt != null) {
+                opt.requestCancelDecode();
+            }
+        }
+    }
+
+    // decode picture for screen
+    private class DecodeTask implements Runnable, Comparable<DecodeTask>
+    {
+        private ContentUpdateInfo update_info;
+        private float priority;
+
+        private DecodeTask(ContentUpdateInfo update_info)
+        {
+            this.update_info = update_info;
+            updatePriority();
+        }
+
+        private void updatePriority()
+        {
+            priority = getLoadPriority(update_info.idx) +
+                (update_info.is_prefetch ? PREFETCH_LOAD_PRIORITY : 0);
+        }
+
+        @Override
+        public int compareTo(DecodeTask o2)
+        {
+            return (priority < o2.priority ? -1 :
+                    priority > o2.priority ? +1 :
+                    update_info.seq - o2.update_info.seq);
+        }
+
+        @Override
+        public void run()
+        {
+            // only copied params: setting may be changed while decoding
+            PictureContentInfo content = update_info.content;
+            DecodeParams params = update_info.params;
+
+            update_info.tex_info = loadTexture(
+                content.getUri(), content.getOrientation(), params,
+                update_info.width, update_info.height, update_info.token);
+            if(params.compress_texture && update_info.tex_info != null) {
+                compressTexture(update_info.tex_info, update_info.token);
+            }
+
+            loader_handler
+                .obtainMessage(MSG_APPLY_SCREEN, update_info)
+                .sendToTarget();
+        }
+    }
+
+    // limit total pixels of concurrent decodes
+    private static class MemoryGate
+    {
+        private long limit = -1;
+        private long used = 0;
+
+        private synchronized void setLimit(long limit)
+        {
+            this.limit = limit;
+            notifyAll();
+        }
+
+        private synchronized void acquire(long pixels)
+        {
+            // at least one decode can run even if it is over limit
+            while(limit > 0 && used > 0 && used + pixels > limit) {
+                try {
+                    wait();
+                }
+                catch(InterruptedException e) {
+                    // ignore
+                }
+            }
+            used += pixels;
+        }
+
+        private synchronized void release(long pixels)
+        {
+            used -= pixels;
+            notifyAll();
+        }
+    }
+
+    // subset of picture to draw
+    private static class ClipInfo
+    {
+        private int x;
+        private int y;
+        private int width;
+        private int height;
+        private float scale;
+        private float xratio;
+        private float yratio;
+    }
+
     // renderer local values
     private Context context;
     private int drawer_priority;
@@ -308,12 +571,21 @@ public class MultiPictureRenderer
     private Handler drawer_handler;
     private HandlerThread loader_thread;
     private Handler loader_handler;
+    private ExecutorService loader_executor;
+    private PriorityBlockingQueue<Runnable> loader_queue;
+    private MemoryGate decode_gate;
+    private int load_seq = 0;
+    private LinkedList<ContentUpdateInfo> pending_updates;
+    private int load_xn = 0;
+    private int load_yn = 0;
+    private volatile ScreenPosition load_position =
+        new ScreenPosition(1, 0, 0, false);
     private HandlerThread picsource_thread;
 
-    private int width = 1;
-    private int height = 1;
+    private volatile int width = 1;
+    private volatile int height = 1;
     private float wratio = 1;
-    private boolean visible = false;
+    private volatile boolean visible = false;
     private SurfaceHolder holder;
     private GLCanvas glcanvas;
 
@@ -323,29 +595,31 @@ public class MultiPictureRenderer
     private float ycur = 0f;
     private float ycur_honeycomb = 1f;
 
-    private int max_screen_pixels;
-    private int max_work_pixels;
-    private int max_texture_size = 2;
-
-    private PictureInfo pic[];
-    private Object pic_whole_lock;
-    private ComponentName default_picsource_service;
-    private String default_picsource_key;
-    private TransitionType screen_transition;
-    private float default_clip_ratio;
-    private float default_saturation;
-    private float default_opacity;
-    private boolean default_detect_bgcolor;
-    private int default_bgcolor;
-    private boolean show_reflection_top;
-    private boolean show_reflection_bottom;
-    private boolean change_tap;
-    private int change_duration;
-    private LauncherWorkaroundType workaround_launcher;
+    private volatile int max_screen_pixels;
+    private volatile int max_work_pixels;
+    private long max_prefetch_bytes;
+    private volatile int max_texture_size = 2;
+    private volatile boolean use_npot_texture = false;
+    private volatile boolean use_etc1_texture = false;
+    private volatile boolean use_gpu_color = false;
+
+    private volatile PictureInfo pic[];
     private int max_memory_size;
-    private boolean use_fullcolor;
+
+    // latest preferences, and ones in use by drawer
+    private volatile RendererSettings published_settings;
+    private volatile RendererSettings settings;
 
     private int last_duration = 0;
+    private long last_step_time = 0;
+    private boolean is_step_requested = false;
+    private FrameScheduler frame_scheduler;
+    private FrameTracker frame_tracker = new FrameTracker();
+
+    // opened streams of decoders, and opens saved by rewinding
+    private AtomicInteger picture_open_cnt = new AtomicInteger();
+    private AtomicInteger picture_saved_open_cnt = new AtomicInteger();
+
     private boolean is_in_transition = false;
     private long transition_prev_time = 0;
     private TransitionType cur_transition;
@@ -355,13 +629,29 @@ public class MultiPictureRenderer
     private boolean is_in_keyguard;
     private boolean is_keyguard_visible;
     private float keyguard_dx;
-    private PictureInfo keyguard_pic;
+    private volatile PictureInfo keyguard_pic;
     private long keyguard_prev_time = 0;
 
     private boolean is_duration_pending = false;
 
     private TextureInfo spinner = null;
 
+    // reused for each frame
+    private ScreenDelta[] screen_deltas = new ScreenDelta[0];
+    private EffectInfo effect_work = new EffectInfo();
+    private EffectInfo hc_effect_work = new EffectInfo();
+    private EffectInfo merged_effect_work = new EffectInfo();
+    private GLMatrix center_matrix = new GLMatrix();
+    private GLMatrix reflect_matrix = new GLMatrix();
+    private GLColor clear_color = new GLColor();
+    private GLColor bgcolor_work = new GLColor();
+    private GLColor border_color = new GLColor();
+
+    private BitmapPool bitmap_pool;
+    private TextureCache texture_cache;
+    private BackgroundColorDetector bgcolor_detector;
+    private BackgroundColorIndex bgcolor_index;
+
     private Paint text_paint;
 
     private SharedPreferences pref;
@@ -385,6 +675,14 @@ public class MultiPictureRenderer
                         return onHandleDrawMessage(msg);
                     }
                 });
+        frame_scheduler = new FrameScheduler(
+            drawer_handler, new FrameScheduler.Callback() {
+                    public void onFrame() {
+                        boolean is_step = is_step_requested;
+                        is_step_requested = false;
+                        draw(is_step);
+                    }
+                });
 
         // load thread and handler
         loader_thread = new HandlerThread(
@@ -397,17 +695,90 @@ public class MultiPictureRenderer
                     }
                 });
 
+        // decoder threads
+        int loader_cnt = getLoaderThreadCount();
+        loader_queue = new PriorityBlockingQueue<Runnable>();
+        loader_executor = new ThreadPoolExecutor(
+            loader_cnt, loader_cnt, 0, TimeUnit.MILLISECONDS, loader_queue,
+            new ThreadFactory() {
+                    private int cnt = 0;
+
+                    public synchronized Thread newThread(final Runnable r) {
+                        cnt += 1;
+                        return new Thread("MultiPicture.decoder." + cnt) {
+                            public void run() {
+                                Process.setThreadPriority(
+                                    Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        };
+                    }
+                });
+        decode_gate = new MemoryGate();
+        pending_updates = new LinkedList<ContentUpdateInfo>();
+
         // picture source thread and handler
         picsource_thread = new HandlerThread(
             "MultiPicture.picsource", Process.THREAD_PRIORITY_BACKGROUND);
         picsource_thread.start();
     }
 
+    // frame path only, without threads and surface: for test
+    MultiPictureRenderer(Context context, RendererSettings settings,
+                         int width, int height, int xcnt, int ycnt)
+    {
+        this.context = context;
+        this.settings = settings;
+        this.width = width;
+        this.height = height;
+        this.xcnt = xcnt;
+        this.ycnt = ycnt;
+        wratio = (float)width / height;
+        keyguard_dx = 1;
+        cur_transition = settings.transition;
+        random = new Random();
+
+        // draws nothing until surface is set
+        glcanvas = new GLCanvas();
+
+        // pictures which are already loaded
+        pic = new PictureInfo[xcnt * ycnt];
+        for(int i = 0; i < pic.length; i++) {
+            PictureInfo info = new PictureInfo();
+            info.tex_info = new TextureInfo();
+            info.tex_info.has_content = true;
+            info.tex_info.xratio = 1;
+            info.tex_info.yratio = 1;
+            info.tex_info.sratio = 1;
+            info.tex_info.tratio = 1;
+            info.setStatus(PictureStatus.NORMAL);
+
+            RendererSettings.ScreenSettings screen = settings.getScreen(i);
+            loadPictureTextureSetting(info, screen);
+            loadPictureColorSetting(info, screen);
+            pic[i] = info;
+        }
+    }
+
+    // same as draw at given position: false if frame is not changed
+    boolean drawFrame(float xcur, float ycur)
+    {
+        this.xcur = xcur;
+        this.ycur = ycur;
+        if(! isFrameChanged()) {
+            return false;
+        }
+
+        drawPicture();
+        return true;
+    }
+
     public void onCreate(SurfaceHolder holder, boolean is_preview)
     {
         holder.setType(SurfaceHolder.SURFACE_TYPE_GPU);
         this.holder = holder;
         glcanvas = new GLCanvas();
+        glcanvas.setPreferGLES2(true);
 
         drawer_priority = (is_preview ?
                            Process.THREAD_PRIORITY_DEFAULT :
@@ -460,6 +831,12 @@ public class MultiPictureRenderer
         drawer_handler.sendEmptyMessage(MSG_CHANGE_PIC_BY_TAP);
     }
 
+    // frames which are not drawn because nothing is changed
+    public int getSkippedFrameCount()
+    {
+        return frame_tracker.getSkippedFrameCount();
+    }
+
     private boolean onHandleDrawMessage(Message msg)
     {
         switch(msg.what) {
@@ -472,88 +849,92 @@ public class MultiPictureRenderer
               break;
 
           case MSG_DRAW:
-          case MSG_DRAW_STEP:
-          case MSG_DRAW_DELAYED:
-              synchronized(pic_whole_lock) {
-                  draw(msg.what == MSG_DRAW_STEP);
-                  pic_whole_lock.notifyAll();
-              }
+              // coalesced into next frame
+              frame_scheduler.requestFrame();
               break;
 
           case MSG_SHOW:
               Process.setThreadPriority(drawer_priority);
-              synchronized(pic_whole_lock) {
-                  visible = true;
-
-                  if(is_duration_pending) {
-                      postDurationCallback();
-                  }
+              visible = true;
 
-                  if(pic != null) {
-                      for(PictureInfo info : pic) {
-                          if(info.is_update_pending) {
-                              info.picker.sendGetNext();
-                          }
-                          info.is_update_pending = false;
-                      }
-                  }
+              if(is_duration_pending) {
+                  postDurationCallback();
+              }
 
-                  if(use_keyguard_pic && keyguard_pic != null) {
-                      if(keyguard_pic.is_update_pending) {
-                          keyguard_pic.picker.sendGetNext();
-                      }
-                      keyguard_pic.is_update_pending = false;
+              if(pic != null) {
+                  for(PictureInfo info : pic) {
+                      showScreen(info);
                   }
+              }
 
-                  drawer_handler.sendEmptyMessage(MSG_DRAW);
+              if(use_keyguard_pic && keyguard_pic != null) {
+                  showScreen(keyguard_pic);
               }
+
+              frame_tracker.invalidate();
+              drawer_handler.sendEmptyMessage(MSG_DRAW);
               break;
 
           case MSG_HIDE:
               Process.setThreadPriority(Process.THREAD_PRIORITY_LESS_FAVORABLE);
-              synchronized(pic_whole_lock) {
-                  visible = false;
-              }
+              visible = false;
+              Log.d(TAG, "frames drawn: " +
+                    frame_tracker.getDrawnFrameCount() +
+                    ", skipped: " + frame_tracker.getSkippedFrameCount());
+              Log.d(TAG, "pictures opened: " + picture_open_cnt.get() +
+                    ", saved: " + picture_saved_open_cnt.get());
               break;
 
           case MSG_PREF_CHANGED:
           case MSG_PREF_CHANGED_NORELOAD:
-              synchronized(pic_whole_lock) {
-                  if(msg.what != MSG_PREF_CHANGED_NORELOAD) {
-                      clearPictureSetting();
-                      glcanvas.setSurface(holder, width, height); // re-create
-                  }
-
-                  loadGlobalSetting();
-                  drawer_handler.sendEmptyMessage(MSG_DRAW);
+              if(msg.what != MSG_PREF_CHANGED_NORELOAD) {
+                  clearPictureSetting();
+                  glcanvas.setSurface(holder, width, height); // re-create
               }
+
+              loadGlobalSetting();
+              drawer_handler.sendEmptyMessage(MSG_DRAW);
+              break;
+
+          case MSG_PREF_CHANGED_SCREEN:
+              // keep other screens and global state as is
+              settings = published_settings;
+              frame_tracker.invalidate();
+              invalidateScreen(msg.arg1, msg.arg2);
+              drawer_handler.sendEmptyMessage(MSG_DRAW);
               break;
 
           case MSG_OFFSET_CHANGED:
               changeOffsets((OffsetInfo)msg.obj);
               drawer_handler.sendEmptyMessage(MSG_DRAW);
 
-              // workaround
-              drawer_handler.removeMessages(MSG_DRAW_DELAYED);
-              drawer_handler.sendEmptyMessageDelayed(MSG_DRAW_DELAYED, 10);
+              if(Math.round(xcur) != load_xn || Math.round(ycur) != load_yn) {
+                  // visible screen changed
+                  load_xn = Math.round(xcur);
+                  load_yn = Math.round(ycur);
+                  reorderScreenContentLoad();
+              }
               break;
 
           case MSG_SURFACE_CHANGED:
               SurfaceInfo info = (SurfaceInfo)msg.obj;
-              synchronized(pic_whole_lock) {
-                  holder = info.holder;
-                  if(use_fullcolor) {
-                      glcanvas.setConfig(8, 8, 8, 8, 16, 0);
-                  }
-                  else {
-                      glcanvas.setConfig(5, 6, 5, 0, 16, 0);
-                  }
-                  glcanvas.setSurface(holder, info.width, info.height);
-                  max_texture_size = glcanvas.getMaxTextureSize();
-                  updateScreenSize(info);
-                  clearPictureBitmap();
-                  drawer_handler.sendEmptyMessage(MSG_DRAW);
+              holder = info.holder;
+              if(settings.use_fullcolor) {
+                  glcanvas.setConfig(8, 8, 8, 8, 16, 0);
+              }
+              else {
+                  glcanvas.setConfig(5, 6, 5, 0, 16, 0);
               }
+              glcanvas.setSurface(holder, info.width, info.height);
+              frame_tracker.invalidate();
+              max_texture_size = glcanvas.getMaxTextureSize();
+              use_npot_texture = glcanvas.isNPOTSupported();
+              use_etc1_texture =
+                  (settings.compress_texture && glcanvas.isETC1Supported());
+              use_gpu_color = glcanvas.isColorAdjustSupported();
+              updateScreenSize(info);
+              clearPictureBitmap();
+              drawer_handler.sendEmptyMessage(MSG_DRAW);
               break;
 
           case MSG_KEYGUARD_CHANGED:
@@ -562,36 +943,43 @@ public class MultiPictureRenderer
               break;
 
           case MSG_CHANGE_PIC_BY_TAP:
-              if(change_tap) {
-                  synchronized(pic_whole_lock) {
-                      updateAllScreen(true);
-                      drawer_handler.sendEmptyMessage(MSG_DRAW);
-                  }
+              if(settings.change_tap) {
+                  updateAllScreen(true);
+                  drawer_handler.sendEmptyMessage(MSG_DRAW);
                   postDurationCallback();
               }
               break;
 
           case MSG_CHANGE_PIC_BY_TIME:
-              synchronized(pic_whole_lock) {
-                  updateAllScreen(false);
-                  drawer_handler.sendEmptyMessage(MSG_DRAW);
-              }
+              updateAllScreen(false);
+              drawer_handler.sendEmptyMessage(MSG_DRAW);
               postDurationCallback();
               break;
 
-          case MSG_CHANGE_PACKAGE_AVAIL:
-              synchronized(pic_whole_lock) {
-                  changePackageAvailable((String[])msg.obj);
+          case MSG_PREFETCH_PIC:
+              prefetchAllScreen();
+              break;
+
+          case MSG_CHANGE_PIC_BY_NOTIFY:
+              PictureInfo notified = (PictureInfo)msg.obj;
+              if(notified.status == PictureStatus.NOT_AVAILABLE &&
+                 notified.loading_cnt.get() != 0) {
+                  // loading new one
+                  notified.setStatus(PictureStatus.BLACKOUT);
                   drawer_handler.sendEmptyMessage(MSG_DRAW);
               }
               break;
 
+          case MSG_CHANGE_PACKAGE_AVAIL:
+              changePackageAvailable((String[])msg.obj);
+              drawer_handler.sendEmptyMessage(MSG_DRAW);
+              break;
+
           case MSG_LOW_MEMORY:
-              synchronized(pic_whole_lock) {
-                  clearPictureBitmap();
-                  glcanvas.setSurface(holder, width, height);
-                  updateScreenSize(null);
-              }
+              clearPictureBitmap();
+              bitmap_pool.clear();
+              glcanvas.setSurface(holder, width, height);
+              updateScreenSize(null);
               synchronized(msg.obj) {
                   msg.obj.notifyAll();
               }
@@ -611,6 +999,14 @@ public class MultiPictureRenderer
               loadScreenContent((ContentUpdateInfo)msg.obj);
               break;
 
+          case MSG_APPLY_SCREEN:
+              finishScreenContent((ContentUpdateInfo)msg.obj);
+              break;
+
+          case MSG_APPLY_PENDING:
+              applyPendingScreenContent();
+              break;
+
           default:
               return false;
         }
@@ -630,6 +1026,16 @@ public class MultiPictureRenderer
         // resolver
         resolver = context.getContentResolver();
 
+        // reusable bitmaps
+        bitmap_pool = new BitmapPool();
+        texture_cache = new TextureCache(
+            new File(context.getCacheDir(), TEXTURE_CACHE_DIR));
+
+        // background color
+        bgcolor_detector = new BackgroundColorDetector();
+        bgcolor_index = new BackgroundColorIndex(
+            new File(context.getCacheDir(), BGCOLOR_INDEX_FILE));
+
         // random
         random = new Random();
 
@@ -660,11 +1066,9 @@ public class MultiPictureRenderer
         context.registerReceiver(receiver, filter);
 
         // init conf
-        pic_whole_lock = new Object();
-        synchronized(pic_whole_lock) {
-            clearPictureSetting();
-            loadGlobalSetting();
-        }
+        published_settings = new RendererSettings(context, pref);
+        clearPictureSetting();
+        loadGlobalSetting();
 
         // spinner texture
         {
@@ -679,7 +1083,8 @@ public class MultiPictureRenderer
             int tw = getLeastPowerOf2GE(bw);
             int th = getLeastPowerOf2GE(bh);
             spinner.bmp = createBitmap(spinner_bmp, 0, 0, bw, bh,
-                                       null, tw, th, 1, 0);
+                                       null, tw, th, 1, 0,
+                                       max_screen_pixels);
             spinner_bmp.recycle();
 
             spinner.bwidth = bw;
@@ -694,11 +1099,12 @@ public class MultiPictureRenderer
 
     private void destroy()
     {
-        synchronized(pic_whole_lock) {
-            // conf
-            clearPictureSetting();
-            glcanvas.terminateGL();
-        }
+        frame_scheduler.cancel();
+
+        // conf
+        clearPictureSetting();
+        glcanvas.terminateGL();
+        bitmap_pool.clear();
 
         // broadcast
         context.unregisterReceiver(receiver);
@@ -709,6 +1115,7 @@ public class MultiPictureRenderer
         // stop threads
         drawer_thread.quit();
         loader_thread.quit();
+        loader_executor.shutdown();
         picsource_thread.quit();
     }
 
@@ -738,6 +1145,24 @@ public class MultiPictureRenderer
 
         info.picker.sendStop();
 
+        synchronized(info) {
+            cancelScreenContentLoad(info);
+
+            if(info.prefetch != null && info.prefetch.is_finished &&
+               info.prefetch.tex_info != null &&
+               info.prefetch.tex_info.bmp != null) {
+                info.prefetch.tex_info.bmp.recycle();
+            }
+            info.prefetch = null;
+        }
+
+        ContentUpdateInfo update_info = info.takeUpdate();
+        if(update_info != null &&
+           update_info.tex_info != null &&
+           update_info.tex_info.bmp != null) {
+            update_info.tex_info.bmp.recycle();
+        }
+
         if(info.tex_info.bmp != null) {
             info.tex_info.bmp.recycle();
         }
@@ -761,6 +1186,7 @@ public class MultiPictureRenderer
 
     private void clearPictureBitmap(PictureInfo info)
     {
+        info.tex_info.etc1_data = null;
         if(info.tex_info.bmp != null) {
             info.tex_info.bmp.recycle();
             info.tex_info.bmp = null;
@@ -776,136 +1202,42 @@ public class MultiPictureRenderer
 
     private void loadGlobalSetting()
     {
-        // default picture source
-        default_picsource_key = MultiPictureSetting.SCREEN_DEFAULT;
+        // snapshot is kept until next change
+        settings = published_settings;
+        frame_tracker.invalidate();
 
-        String service_str = pref.getString(
-            MultiPictureSetting.getKey(
-                MultiPictureSetting.SCREEN_PICSOURCE_SERVICE_KEY, -1), null);
-        if(service_str != null) {
-            // lazy picker
-            default_picsource_service =
-                ComponentName.unflattenFromString(service_str);
-        }
-        else {
-            // backward compatible
-            ScreenType default_type = ScreenType.valueOf(
-                pref.getString(
-                    MultiPictureSetting.getKey(
-                        MultiPictureSetting.SCREEN_TYPE_KEY, -1), "buckets"));
+        // draw setting
+        cur_transition = settings.transition;
 
-            if(default_type == ScreenType.file) {
-                // single file
-                default_picsource_service =
-                    new ComponentName(context, SinglePickService.class);
-            }
-            else if(default_type == ScreenType.folder) {
-                // from folder
-                default_picsource_service =
-                    new ComponentName(context, FolderPickService.class);
-            }
-            else if(default_type == ScreenType.buckets) {
-                // from album
-                default_picsource_service =
-                    new ComponentName(context, AlbumPickService.class);
-            }
-        }
+        // mipmaps for zoomed out pictures
+        glcanvas.setUseMipmap(settings.use_mipmap);
+        use_npot_texture = glcanvas.isNPOTSupported();
 
-        // background color
-        {
-            String bgcolor = pref.getString(
-                MultiPictureSetting.getKey(
-                    MultiPictureSetting.SCREEN_BGCOLOR_KEY, -1), "auto_detect");
-            if("auto_detect".equals(bgcolor)) {
-                default_detect_bgcolor = true;
-            }
-            else if("custom".equals(bgcolor)) {
-                default_bgcolor = pref.getInt(
-                    MultiPictureSetting.getKey(
-                        MultiPictureSetting.SCREEN_BGCOLOR_CUSTOM_KEY, -1),
-                    0xff000000);
-            }
-            else {
-                default_detect_bgcolor = false;
-                default_bgcolor = Color.parseColor(bgcolor);
-            }
-        }
+        // compressed textures for less memory
+        use_etc1_texture =
+            (settings.compress_texture && glcanvas.isETC1Supported());
 
-        // draw setting
-        screen_transition = TransitionType.valueOf(
-            pref.getString("draw.transition", "random"));
-        cur_transition = screen_transition;
-        show_reflection_top = pref.getBoolean("draw.reflection.top", false);
-        show_reflection_bottom = pref.getBoolean("draw.reflection", true);
-
-        default_clip_ratio = Float.valueOf(
-            pref.getString(
-                MultiPictureSetting.getKey(
-                    MultiPictureSetting.SCREEN_CLIP_KEY, -1), "0.5"));
-        default_saturation = Float.valueOf(
-            pref.getString(
-                MultiPictureSetting.getKey(
-                    MultiPictureSetting.SCREEN_SATURATION_KEY, -1), "1.0"));
-        default_opacity = Float.valueOf(
-            pref.getString(
-                MultiPictureSetting.getKey(
-                    MultiPictureSetting.SCREEN_OPACITY_KEY, -1), "1.0"));
-
-        // folder setting
-        change_tap = pref.getBoolean("folder.changetap", true);
-        {
-            String min_str = pref.getString("folder.duration", null);
-            String sec_str = pref.getString("folder.duration_sec", null);
-            change_duration =
-                (sec_str != null ? Integer.parseInt(sec_str) :
-                 min_str != null ? Integer.parseInt(min_str) * 60 :
-                 60 * 60);
-        }
+        // saturation is applied at draw time if possible
+        use_gpu_color = glcanvas.isColorAdjustSupported();
 
         // keyguard screen
-        use_keyguard_pic = pref.getBoolean(
-            MultiPictureSetting.getKey(MultiPictureSetting.SCREEN_ENABLE_KEY,
-                                       MultiPictureSetting.SCREEN_KEYGUARD),
-            false);
+        use_keyguard_pic = settings.use_keyguard_pic;
         is_in_keyguard = false;
-
-        // workaround
-        boolean workaround_sense_val =
-            pref.getBoolean("workaround.htcsense", true);
-        String workaround_launcher_str =
-            pref.getString("workaround.launcher", null);
-        if(workaround_launcher_str == null) {
-            workaround_launcher_str =
-                (pref.contains("workaround.htcsense") ?
-                 (workaround_sense_val ? "htc_sense" : "none") :
-                 context.getString(R.string.workaround_default));
-        }
-        workaround_launcher =
-            LauncherWorkaroundType.valueOf(workaround_launcher_str);
+        publishScreenPosition();
 
         // maximum memory usage
-        String max_memory_str = pref.getString("memory.max", "auto");
-        if("auto".equals(max_memory_str)) {
-            max_memory_size = MultiPictureSetting.getAutoMemoryClass(context);
-        }
-        else {
-            max_memory_size = Integer.valueOf(max_memory_str);
-        }
+        max_memory_size = settings.max_memory_size;
         max_memory_size -= (max_memory_size > 0 ? MEMORY_SIZE_OFFSET : 0);
 
+        // prepared texture cache
+        texture_cache.setMaxSize(settings.texture_cache_size);
+
         updateScreenSize(null);
 
         // full color or high color
-        int dpy_pfmt =
-            ((WindowManager)context.getSystemService(Context.WINDOW_SERVICE))
-            .getDefaultDisplay().getPixelFormat();
-        String fullcolor_str = pref.getString("color.fullcolor", "highcolor");
-
-        use_fullcolor = ("fullcolor".equals(fullcolor_str) &&
-                         dpy_pfmt != PixelFormat.RGB_565);
-
         holder.setFormat(
-            use_fullcolor ? PixelFormat.RGBA_8888 : PixelFormat.RGB_565);
+            settings.use_fullcolor ?
+            PixelFormat.RGBA_8888 : PixelFormat.RGB_565);
     }
 
     private void updateScreenSize(SurfaceInfo info)
@@ -932,11 +1264,24 @@ public class MultiPictureRenderer
             int max_total_pixels = max_memory_size * PIXELS_PER_MB;
             max_screen_pixels = max_total_pixels / (cnt + 3);
             max_work_pixels = max_screen_pixels * 2;
+            bitmap_pool.setMaxSize(
+                max_memory_size * BYTES_PER_MB / BITMAP_POOL_RATIO);
+            max_prefetch_bytes =
+                (long)max_memory_size * BYTES_PER_MB / PREFETCH_MEMORY_RATIO;
+
+            // concurrent decodes which fit in memory
+            int loader_cnt = Math.max(
+                1, Math.min(getLoaderThreadCount(),
+                            max_memory_size / MEMORY_SIZE_PER_LOADER));
+            decode_gate.setLimit((long)max_work_pixels * loader_cnt);
         }
         else {
             // unlimited size
             max_screen_pixels = -1;
             max_work_pixels = -1;
+            max_prefetch_bytes = -1;
+            bitmap_pool.setMaxSize(DEFAULT_BITMAP_POOL_SIZE);
+            decode_gate.setLimit(-1);
         }
     }
 
@@ -994,24 +1339,11 @@ public class MultiPictureRenderer
                 }
             }
 
-            if(info.status == PictureStatus.FADEIN) {
-                if((is_visible && info.progress >= FADE_TOTAL_DURATION) ||
-                   (! is_visible)) {
-                    info.setStatus(PictureStatus.NORMAL);
-                }
-            }
-            else if(info.status == PictureStatus.FADEOUT) {
-                if((is_visible && info.progress >= FADE_TOTAL_DURATION) ||
-                   (! is_visible)) {
-                    info.setStatus(PictureStatus.BLACKOUT);
-                }
-            }
-            else if(info.status == PictureStatus.BLACKOUT) {
-                if((is_visible && info.progress >= BLACKOUT_TOTAL_DURATION) ||
-                   (! is_visible)) {
-                    info.setStatus(PictureStatus.SPINNER);
-                }
-            }
+            // decoded picture replaces current one after fade-out
+            ContentUpdateInfo update_info = info.peekUpdate();
+            info.updateStatus(is_visible,
+                              (update_info != null &&
+                               update_info.content != null));
 
             if(is_visible) {
                 int duration = next_duration;
@@ -1034,7 +1366,7 @@ public class MultiPictureRenderer
                                  Math.min(next_duration, duration));
             }
 
-            info.progress += add_step;
+            info.addProgress(add_step);
         }
 
         return next_duration;
@@ -1042,17 +1374,19 @@ public class MultiPictureRenderer
 
     private void draw(boolean is_step)
     {
-        drawer_handler.removeMessages(MSG_DRAW);
-
         // check draw interval
         long cur_time = SystemClock.uptimeMillis();
         int cur_duration = 0;
 
         // update keyguard state
         if(use_keyguard_pic) {
-            is_in_keyguard =
+            boolean in_keyguard =
                 ((KeyguardManager)context.getSystemService(
                     Context.KEYGUARD_SERVICE)).inKeyguardRestrictedInputMode();
+            if(in_keyguard != is_in_keyguard) {
+                is_in_keyguard = in_keyguard;
+                publishScreenPosition();
+            }
             if(is_in_keyguard) {
                 keyguard_prev_time = cur_time;
             }
@@ -1073,7 +1407,11 @@ public class MultiPictureRenderer
             for(int i = 0; i < pic.length; i++) {
                 if(pic[i].picsource_need_restart) {
                     clearPictureSetting(pic[i]);
-                    pic[i] = loadPictureInfo(i);
+
+                    // publish as new array
+                    PictureInfo[] new_pic = pic.clone();
+                    new_pic[i] = loadPictureInfo(i);
+                    pic = new_pic;
                 }
             }
         }
@@ -1084,35 +1422,24 @@ public class MultiPictureRenderer
             }
         }
 
-        // prepare next draw
+        // prepare next draw: progress by elapsed time since last step
         if(pic != null && (is_step || last_duration == 0)) {
-            cur_duration = updatePictureStatus(last_duration);
+            int step = (last_duration == 0 ? 0 :
+                        (int)Math.min(cur_time - last_step_time,
+                                      MAX_STEP_DURATION));
+            cur_duration = updatePictureStatus(step);
+            last_step_time = cur_time;
         }
 
         // check bitmap to texture
         if(pic != null) {
             for(int i = 0; i < pic.length; i++) {
-                PictureInfo info = pic[i];
-                if(info.tex_info.has_content &&
-                   info.tex_info.bmp != null) {
-                    info.tex_info.tex_id =
-                        glcanvas.genTexture(info.tex_info.tex_id,
-                                            info.tex_info.bmp);
-                    info.tex_info.bmp.recycle();
-                    info.tex_info.bmp = null;
-                }
+                updateScreenTexture(pic[i]);
             }
         }
 
         if(use_keyguard_pic && keyguard_pic != null) {
-            if(keyguard_pic.tex_info.has_content &&
-               keyguard_pic.tex_info.bmp != null) {
-                keyguard_pic.tex_info.tex_id =
-                    glcanvas.genTexture(keyguard_pic.tex_info.tex_id,
-                                        keyguard_pic.tex_info.bmp);
-                keyguard_pic.tex_info.bmp.recycle();
-                keyguard_pic.tex_info.bmp = null;
-            }
+            updateScreenTexture(keyguard_pic);
         }
 
         // check visible
@@ -1128,122 +1455,153 @@ public class MultiPictureRenderer
             loadPictureSetting();
             postDurationCallback();
             cur_duration = updatePictureStatus(0);
+            last_step_time = cur_time;
         }
 
         for(int i = 0; i < pic.length; i++) {
-            PictureInfo info = pic[i];
-            if(info.loading_cnt == 0 &&
-               info.cur_content != null &&
-               ! info.tex_info.has_content) {
-                info.loading_cnt += 1;
-                sendUpdateScreen(i, info, null, true);
-            }
+            reloadScreen(i, pic[i]);
         }
 
         if(use_keyguard_pic) {
-            if(keyguard_pic.loading_cnt == 0 &&
-               keyguard_pic.cur_content != null &&
-               ! keyguard_pic.tex_info.has_content) {
-                keyguard_pic.loading_cnt += 1;
-                sendUpdateScreen(-1, keyguard_pic, null, true);
-            }
+            reloadScreen(-1, keyguard_pic);
         }
 
-        // draw
-        try {
-            drawPicture();
-        }
-        finally {
-            if(! glcanvas.swap()) {
-                // reload and retry
-                clearPictureBitmap();
-                drawer_handler.sendEmptyMessage(MSG_DRAW);
+        // draw: skip if same as last frame
+        if(isFrameChanged()) {
+            try {
+                drawPicture();
+            }
+            finally {
+                if(! glcanvas.swap()) {
+                    // reload and retry
+                    clearPictureBitmap();
+                    frame_tracker.invalidate();
+                    drawer_handler.sendEmptyMessage(MSG_DRAW);
+                }
             }
         }
 
-        // prepare next draw step
+        // prepare next draw step: on first vsync after the duration
         if(cur_duration > 0) {
             long next_time = cur_time + cur_duration;
             last_duration = cur_duration;
 
-            drawer_handler.removeMessages(MSG_DRAW_STEP);
-            drawer_handler.sendEmptyMessageAtTime(MSG_DRAW_STEP, next_time);
+            is_step_requested = true;
+            frame_scheduler.requestFrameAt(next_time);
         }
         else if(is_step) {
             last_duration = 0;
         }
     }
 
-    private void drawPicture()
+    private void updateScreenTexture(PictureInfo info)
     {
-        // delta for each screen
-        class ScreenDelta implements Comparable<ScreenDelta>
-        {
-            PictureInfo pic_info;
-            float dx;
-            float dy;
-            float dz;
-            float fade;
-            float xpos;
-            boolean visible;
-            boolean for_lock;
-
-            ScreenDelta(PictureInfo pic_info, float dx, float dy, float xpos,
-                        boolean for_lock)
-            {
-                this.pic_info = pic_info;
-                this.dx = dx;
-                this.dy = dy;
-                this.xpos = xpos;
-                this.for_lock = for_lock;
-
-                float fade_r =
-                    ((pic_info.status == PictureStatus.NOT_AVAILABLE ||
-                      pic_info.status == PictureStatus.SPINNER ||
-                      pic_info.status == PictureStatus.NORMAL) ?
-                     FADE_TOTAL_DURATION :
-                     pic_info.status == PictureStatus.FADEIN ?
-                     pic_info.progress :
-                     pic_info.status == PictureStatus.FADEOUT ?
-                     FADE_TOTAL_DURATION - pic_info.progress :
-                     0) / (float)FADE_TOTAL_DURATION;
-                float fade_k =
-                    ratioRange(for_lock ? 1 - keyguard_dx * 2 :
-                               keyguard_dx * 2 - 1);
-
-                dz = fade_k;
-                fade = ratioRange(fade_r) * fade_k;
-                visible = (for_lock ? is_keyguard_visible : true);
-            }
-
-            @Override
-            public int compareTo(ScreenDelta o2)
-            {
-                if(for_lock != o2.for_lock) {
-                    return (for_lock ? +1 : -1);
-                }
+        // without lock: texture is owned by drawer thread
+        ContentUpdateInfo update_info = info.peekUpdate();
+        if(update_info != null &&
+           (update_info.content == null || info.isReplaceable())) {
+            // fade-out completed, or nothing decoded: replace picture
+            info.takeUpdate();
+            if(checkScreenContent(update_info)) {
+                replaceScreenContent(update_info);
+            }
+            loader_handler.sendEmptyMessage(MSG_APPLY_PENDING);
+        }
+
+        if(info.tex_info.has_content &&
+           info.tex_info.bmp != null) {
+            info.tex_info.tex_id =
+                glcanvas.genTexture(info.tex_info.tex_id,
+                                    info.tex_info.bmp);
+            bitmap_pool.put(info.tex_info.bmp);
+            info.tex_info.bmp = null;
+            frame_tracker.invalidate();
+        }
+        else if(info.tex_info.has_content &&
+                info.tex_info.etc1_data != null) {
+            info.tex_info.tex_id =
+                glcanvas.genTexture(info.tex_info.tex_id,
+                                    info.tex_info.etc1_width,
+                                    info.tex_info.etc1_height,
+                                    info.tex_info.etc1_data);
+            info.tex_info.etc1_data = null;
+            frame_tracker.invalidate();
+        }
+    }
 
-                // reverse order
-                float d1 = Math.abs(this.dx) + Math.abs(this.dy);
-                float d2 = Math.abs(o2.dx) + Math.abs(o2.dy);
-                return (d1 < d2 ? +1 :
-                        d1 > d2 ? -1 :
-                        0);
-            }
+    private void reloadScreen(int idx, PictureInfo info)
+    {
+        // texture lost: load again unless other load is in progress
+        if(info.cur_content != null &&
+           ! info.tex_info.has_content &&
+           info.loading_cnt.compareAndSet(0, 1)) {
+            sendUpdateScreen(idx, info, null, true);
         }
+    }
 
-        ScreenDelta[] ds = new ScreenDelta[
-            pic.length + (use_keyguard_pic ? 1 : 0)];
+    private boolean isFrameChanged()
+    {
+        // everything which drawPicture depends on, except settings
+        FrameTracker t = frame_tracker;
+        t.begin();
+        t.add(width);
+        t.add(height);
+        t.add(xcnt);
+        t.add(xcur);
+        t.add(ycur);
+        t.add(ycur_honeycomb);
+        t.add(keyguard_dx);
+        t.add(is_keyguard_visible);
+        t.add(cur_transition.ordinal());
+        t.add(is_in_transition);
 
-        for(int i = 0; i < pic.length; i++) {
-            int xx = i % xcnt;
-            int yy = i / xcnt;
-            float xpos = (xcnt > 0 ? (float)xx / (xcnt - 1) : 0);
-            ds[i] = new ScreenDelta(pic[i], xx - xcur, yy - ycur, xpos, false);
+        for(PictureInfo info : pic) {
+            addFrameState(t, info);
+        }
+        if(use_keyguard_pic) {
+            addFrameState(t, keyguard_pic);
+        }
+
+        return t.commit();
+    }
+
+    private void addFrameState(FrameTracker t, PictureInfo info)
+    {
+        // same as drawPicture: volatile fields without lock
+        TextureInfo tex_info = info.tex_info;
+        t.add(info.status.ordinal());
+        t.add(info.progress);
+        t.add(System.identityHashCode(tex_info));
+        t.add(tex_info.tex_id);
+        t.add(tex_info.has_content);
+
+        if(info.status == PictureStatus.SPINNER) {
+            // rotated by time
+            t.add(SystemClock.uptimeMillis() / SPINNER_FRAME_DURATION);
+        }
+    }
+
+    private void drawPicture()
+    {
+        // delta for each screen: reuse for each frame
+        int ds_cnt = pic.length + (use_keyguard_pic ? 1 : 0);
+        if(screen_deltas.length != ds_cnt) {
+            screen_deltas = new ScreenDelta[ds_cnt];
+            for(int i = 0; i < ds_cnt; i++) {
+                screen_deltas[i] = new ScreenDelta();
+            }
+        }
+        ScreenDelta[] ds = screen_deltas;
+
+        for(int i = 0; i < pic.length; i++) {
+            int xx = i % xcnt;
+            int yy = i / xcnt;
+            float xpos = (xcnt > 0 ? (float)xx / (xcnt - 1) : 0);
+            ds[i].set(pic[i], xx - xcur, yy - ycur, xpos, false);
         }
 
         if(use_keyguard_pic) {
-            ds[pic.length] = new ScreenDelta(keyguard_pic, 0, 0, 0, true);
+            ds[pic.length].set(keyguard_pic, 0, 0, 0, true);
         }
 
         // delta
@@ -1255,7 +1613,7 @@ public class MultiPictureRenderer
         // for random transition
         if(((! is_in_transition) &&
             (dxpx >= 1 || dypx >= 1) &&
-            (screen_transition == TransitionType.random) &&
+            (settings.transition == TransitionType.random) &&
             (transition_prev_time + TRANSITION_RANDOM_TIMEOUT <
              SystemClock.elapsedRealtime())) ||
            (cur_transition == TransitionType.random)) {
@@ -1276,11 +1634,11 @@ public class MultiPictureRenderer
         }
 
         // background color
-        GLColor color = new GLColor(0);
+        GLColor color = clear_color.set(0, 0, 0, 0);
         for(ScreenDelta s : ds) {
             if(s.visible) {
-                GLColor cc =
-                    getBackgroundColor(s.pic_info, s.dx, s.dy, s.dz, s.fade);
+                GLColor cc = getBackgroundColor(
+                    bgcolor_work, s.pic_info, s.dx, s.dy, s.dz, s.fade);
                 color.red   += cc.red * cc.alpha;
                 color.green += cc.green * cc.alpha;
                 color.blue  += cc.blue * cc.alpha;
@@ -1299,7 +1657,7 @@ public class MultiPictureRenderer
         float hc_ratio = 1 - Math.min(1, Math.abs(ycur_honeycomb - 1));
 
         if(need_sort_transition.contains(cur_transition)) {
-            Arrays.sort(ds);
+            sortScreenDelta(ds);
         }
 
         for(ScreenDelta s : ds) {
@@ -1307,12 +1665,14 @@ public class MultiPictureRenderer
             float dy = s.dy * hc_ratio;
 
             EffectInfo effect =
-                (s.visible ? getTransitionEffect(cur_transition, dx, dy) :
+                (s.visible ?
+                 getTransitionEffect(effect_work, cur_transition, dx, dy) :
                  null);
             if(effect != null && hc_ratio < 1 && ! s.for_lock) {
                 EffectInfo hc_effect = getHoneycombEffect(
-                    s.xpos, ycur_honeycomb);
-                effect = mergeEffect(effect, hc_effect, hc_ratio);
+                    hc_effect_work, s.xpos, ycur_honeycomb);
+                effect = mergeEffect(
+                    merged_effect_work, effect, hc_effect, hc_ratio);
             }
 
             if(effect != null && effect.alpha > 0) {
@@ -1321,6 +1681,20 @@ public class MultiPictureRenderer
         }
     }
 
+    private static void sortScreenDelta(ScreenDelta[] ds)
+    {
+        // insertion sort: few elements, and no work array
+        for(int i = 1; i < ds.length; i++) {
+            ScreenDelta d = ds[i];
+            int j = i;
+            while(j > 0 && ds[j - 1].compareTo(d) > 0) {
+                ds[j] = ds[j - 1];
+                j -= 1;
+            }
+            ds[j] = d;
+        }
+    }
+
     private void drawPicture(PictureInfo pic_info,
                              EffectInfo effect, float dz, float fade)
     {
@@ -1341,7 +1715,7 @@ public class MultiPictureRenderer
              null);
         GLColor bgcolor =
             (effect.fill_background > 0 ?
-             getBackgroundColorNoAlpha(pic_info, fade).setAlpha(
+             getBackgroundColorNoAlpha(bgcolor_work, pic_info, fade).setAlpha(
                  effect.fill_background * dz) : null);
         float border_ratio =
             (status == PictureStatus.SPINNER ||
@@ -1351,12 +1725,16 @@ public class MultiPictureRenderer
             (status == PictureStatus.SPINNER ||
              status == PictureStatus.NOT_AVAILABLE ? 1 :
              pic_info.opacity);
+        float saturation =
+            (status == PictureStatus.SPINNER ||
+             status == PictureStatus.NOT_AVAILABLE || ! use_gpu_color ? 1 :
+             pic_info.saturation);
 
         if(effect.need_border && border_ratio > 0) {
             // border and/or background
             glcanvas.drawRect(
                 effect.matrix, bgcolor,
-                new GLColor(BORDER_COLOR).setAlpha(
+                border_color.set(BORDER_COLOR).setAlpha(
                     effect.alpha * border_ratio));
         }
         else if(bgcolor != null) {
@@ -1377,8 +1755,11 @@ public class MultiPictureRenderer
             // alpha with fade
             effect.alpha *= fade;
 
+            // texture is not adjusted on loading
+            glcanvas.setColorAdjust(saturation, 0, 1);
+
             // matrix for main texture
-            GLMatrix mcenter = new GLMatrix(effect.matrix)
+            GLMatrix mcenter = center_matrix.set(effect.matrix)
                 .scale(tex_info.xratio, tex_info.yratio, 1);
 
             // draw content picture
@@ -1387,8 +1768,8 @@ public class MultiPictureRenderer
                 effect.alpha * opacity, fade);
 
             // mirrored picture: top
-            if(tex_info.enable_reflect && show_reflection_top) {
-                GLMatrix mtop = new GLMatrix(mcenter)
+            if(tex_info.enable_reflect && settings.show_reflection_top) {
+                GLMatrix mtop = reflect_matrix.set(mcenter)
                     .translate(0, 2, 0)
                     .scale(1, -1, 1);
 
@@ -1402,8 +1783,8 @@ public class MultiPictureRenderer
             }
 
             // mirrored picture: bottom
-            if(tex_info.enable_reflect && show_reflection_bottom) {
-                GLMatrix mbtm = new GLMatrix(mcenter)
+            if(tex_info.enable_reflect && settings.show_reflection_bottom) {
+                GLMatrix mbtm = reflect_matrix.set(mcenter)
                     .translate(0, -2, 0)
                     .scale(1, -1, 1);
 
@@ -1423,10 +1804,11 @@ public class MultiPictureRenderer
         }
     }
 
-    private EffectInfo getTransitionEffect(TransitionType transition,
+    private EffectInfo getTransitionEffect(EffectInfo effect,
+                                           TransitionType transition,
                                            float dx, float dy)
     {
-        EffectInfo effect = new EffectInfo();
+        effect.reset();
 
         if(transition == TransitionType.none) {
             if(dx <= -0.5 || dx > 0.5 ||
@@ -1483,11 +1865,10 @@ public class MultiPictureRenderer
                 return null;
             }
 
-            effect.clip_rect =
-                new RectF(((dx <= 0 ? 0 : +dx) * 2f - 1f) * wratio,
-                          ((dy <= 0 ? 0 : -dy) * 2f + 1f),
-                          ((dx <= 0 ? +dx : 0) * 2f + 1f) * wratio,
-                          ((dy <= 0 ? -dy : 0) * 2f - 1f));
+            effect.setClipRect(((dx <= 0 ? 0 : +dx) * 2f - 1f) * wratio,
+                               ((dy <= 0 ? 0 : -dy) * 2f + 1f),
+                               ((dx <= 0 ? +dx : 0) * 2f + 1f) * wratio,
+                               ((dy <= 0 ? -dy : 0) * 2f - 1f));
             effect.fill_background = 1;
         }
         else if(transition == TransitionType.card) {
@@ -1638,10 +2019,11 @@ public class MultiPictureRenderer
         return effect;
     }
 
-    private EffectInfo getHoneycombEffect(float xpos, float dy)
+    private EffectInfo getHoneycombEffect(EffectInfo effect,
+                                          float xpos, float dy)
     {
         float dx = xpos - 0.5f;
-        EffectInfo effect = new EffectInfo();
+        effect.reset();
 
         float wr = wratio * (wratio < 1 ? 1 : 0.8f);
         float xang =
@@ -1659,12 +2041,13 @@ public class MultiPictureRenderer
         return effect;
     }
 
-    private EffectInfo mergeEffect(EffectInfo effect1, EffectInfo effect2,
+    private EffectInfo mergeEffect(EffectInfo effect,
+                                   EffectInfo effect1, EffectInfo effect2,
                                    float ratio1)
     {
         float ratio2 = 1 - ratio1;
 
-        EffectInfo effect = new EffectInfo();
+        effect.reset();
 
         float md[] = effect.matrix.get();
         float m1[] = effect1.matrix.get();
@@ -1674,7 +2057,7 @@ public class MultiPictureRenderer
         }
 
         if(effect1.clip_rect != null || effect2.clip_rect != null) {
-            effect.clip_rect = new RectF(0, 0, 0, 0);
+            effect.setClipRect(0, 0, 0, 0);
 
             if(effect1.clip_rect != null) {
                 effect.clip_rect.left += effect1.clip_rect.left * ratio1;
@@ -1714,17 +2097,18 @@ public class MultiPictureRenderer
         return effect;
     }
 
-    private GLColor getBackgroundColorNoAlpha(PictureInfo pic_info, float fade)
+    private GLColor getBackgroundColorNoAlpha(GLColor color,
+                                              PictureInfo pic_info, float fade)
     {
         PictureStatus status = pic_info.status;
 
         if(status == PictureStatus.BLACKOUT ||
            status == PictureStatus.SPINNER ||
            status == PictureStatus.NOT_AVAILABLE) {
-            return new GLColor();
+            return color.set(0, 0, 0, 1);
         }
 
-        GLColor color = new GLColor(pic_info.tex_info.bgcolor);
+        color.set(pic_info.tex_info.bgcolor);
         color.red   *= fade;
         color.green *= fade;
         color.blue  *= fade;
@@ -1733,31 +2117,32 @@ public class MultiPictureRenderer
         return color;
     }
 
-    private GLColor getBackgroundColor(PictureInfo pic_info,
+    private GLColor getBackgroundColor(GLColor color, PictureInfo pic_info,
                                        float dx, float dy, float dz, float fade)
     {
         float a =
             Math.max(0, (1 - Math.abs(dx))) *
             Math.max(0, (1 - Math.abs(dy))) * dz;
-        return getBackgroundColorNoAlpha(pic_info, fade).setAlpha(a);
+        return getBackgroundColorNoAlpha(color, pic_info, fade).setAlpha(a);
     }
 
     private void changeOffsets(OffsetInfo info)
     {
+        LauncherWorkaroundType workaround = settings.workaround_launcher;
         ycur_honeycomb = 1f;
 
-        if(workaround_launcher == LauncherWorkaroundType.htc_sense ||
-           workaround_launcher == LauncherWorkaroundType.htc_sense_5screen) {
+        if(workaround == LauncherWorkaroundType.htc_sense ||
+           workaround == LauncherWorkaroundType.htc_sense_5screen) {
             // workaround for f*cking HTC Sense home app
             if(info.xstep < 0) {
-                int ns = (workaround_launcher ==
+                int ns = (workaround ==
                           LauncherWorkaroundType.htc_sense ? 7 : 5);
                 float margin = 1f / (ns + 1);
                 info.xstep = 1f / (ns - 1);
                 info.xoffset = (info.xoffset - margin) / (1 - margin * 2);
             }
         }
-        else if(workaround_launcher ==
+        else if(workaround ==
                 LauncherWorkaroundType.honeycomb_launcher) {
             // workaround for Honeycomb Tablet's launcher
             if(context.getResources().getConfiguration().orientation ==
@@ -1776,7 +2161,7 @@ public class MultiPictureRenderer
             info.ystep = 0;
             info.yoffset = 0;
         }
-        else if(workaround_launcher ==
+        else if(workaround ==
                 LauncherWorkaroundType.ics_mr1_launcher) {
             // workaround for ICS MR1 Tablet's strange launcher
             if(context.getResources().getConfiguration().orientation ==
@@ -1793,17 +2178,17 @@ public class MultiPictureRenderer
             info.ystep = 0;
             info.yoffset = 0;
         }
-        else if(workaround_launcher == LauncherWorkaroundType.no_vertical) {
+        else if(workaround == LauncherWorkaroundType.no_vertical) {
             // disable vertical
             info.ystep = 0;
             info.yoffset = 0;
         }
-        else if(workaround_launcher == LauncherWorkaroundType.force_5screen) {
+        else if(workaround == LauncherWorkaroundType.force_5screen) {
             info.xstep = 1f / 4f;
             info.ystep = 0;
             info.yoffset = 0;
         }
-        else if(workaround_launcher == LauncherWorkaroundType.force_7screen) {
+        else if(workaround == LauncherWorkaroundType.force_7screen) {
             info.xstep = 1f / 6f;
             info.ystep = 0;
             info.yoffset = 0;
@@ -1813,17 +2198,23 @@ public class MultiPictureRenderer
         int xn = (info.xstep <= 0 ? 1 : Math.round(1 / info.xstep) + 1);
         int yn = (info.ystep <= 0 ? 1 : Math.round(1 / info.ystep) + 1);
         if(xn != xcnt || yn != ycnt) {
-            synchronized(pic_whole_lock) {
-                xcnt = xn;
-                ycnt = yn;
-                clearPictureSetting();
-                updateScreenSize(null);
-            }
+            xcnt = xn;
+            ycnt = yn;
+            clearPictureSetting();
+            updateScreenSize(null);
         }
 
         // current screen position
         xcur = (info.xstep <= 0 ? 0 : info.xoffset / info.xstep);
         ycur = (info.ystep <= 0 ? 0 : info.yoffset / info.ystep);
+        publishScreenPosition();
+    }
+
+    private void publishScreenPosition()
+    {
+        // read by loader and decoder threads
+        load_position =
+            new ScreenPosition(xcnt, xcur, ycur, is_in_keyguard);
     }
 
     private void postDurationCallback()
@@ -1836,14 +2227,21 @@ public class MultiPictureRenderer
             PendingIntent.getBroadcast(context, 0, intent, 0);
 
         mgr.cancel(alarm_intent);
+        drawer_handler.removeMessages(MSG_PREFETCH_PIC);
 
-        if(change_duration > 0) {
+        if(settings.change_duration > 0) {
             if(visible) {
-                int duration_msec = change_duration * 1000;
+                int duration_msec = settings.change_duration * 1000;
                 mgr.set(AlarmManager.ELAPSED_REALTIME,
                         SystemClock.elapsedRealtime() + duration_msec,
                         alarm_intent);
 
+                // prepare next pictures shortly before change
+                drawer_handler.sendEmptyMessageDelayed(
+                    MSG_PREFETCH_PIC,
+                    duration_msec -
+                    Math.min(PREFETCH_LEAD_TIME, duration_msec / 2));
+
                 is_duration_pending = false;
             }
             else {
@@ -1855,12 +2253,13 @@ public class MultiPictureRenderer
     private void loadPictureSetting()
     {
         int cnt = xcnt * ycnt;
-        pic = new PictureInfo[cnt];
+        PictureInfo[] new_pic = new PictureInfo[cnt];
 
         // for each screen
         for(int i = 0; i < cnt; i++) {
-            pic[i] = loadPictureInfo(i);
+            new_pic[i] = loadPictureInfo(i);
         }
+        pic = new_pic;
 
         // for keyguard screen
         if(use_keyguard_pic) {
@@ -1871,141 +2270,141 @@ public class MultiPictureRenderer
     private PictureInfo loadPictureInfo(int idx)
     {
         // (idx == -1) for keyguard screen
-        String idx_key = (idx >= 0 ? String.valueOf(idx) :
-                          MultiPictureSetting.SCREEN_KEYGUARD);
-
         // allocate info
         PictureInfo info = new PictureInfo();
         info.tex_info = new TextureInfo();
+        info.loads = new ArrayList<ContentUpdateInfo>();
 
         // picture status, progress
         info.cur_content = null;
         info.setStatus(PictureStatus.BLACKOUT);
-        info.loading_cnt = 1;
+        info.loading_cnt.set(1);
 
         // picture source service
-        String service_str = pref.getString(
-            MultiPictureSetting.getKey(
-                MultiPictureSetting.SCREEN_PICSOURCE_SERVICE_KEY, idx_key),
-            null);
-
-        info.picsource_key = idx_key;
-
-        if("".equals(service_str)) {
-            // same as default
-            info.picsource_service = default_picsource_service;
-            info.picsource_key = default_picsource_key;
-        }
-        else if(service_str != null) {
-            // lazy picker
-            info.picsource_service =
-                ComponentName.unflattenFromString(service_str);
-        }
-        else {
-            // backward compatible
-            String type_str = pref.getString(
-                MultiPictureSetting.getKey(
-                    MultiPictureSetting.SCREEN_TYPE_KEY, idx_key), null);
-            String fname = pref.getString(
-                MultiPictureSetting.getKey(
-                    MultiPictureSetting.SCREEN_FILE_KEY, idx_key), null);
-
-            ScreenType type =
-                ((type_str == null && fname != null) ? ScreenType.file :
-                 type_str == null ? ScreenType.use_default :
-                 ScreenType.valueOf(type_str));
-
-            if(type == ScreenType.use_default) {
-                // same as default
-                info.picsource_service = default_picsource_service;
-                info.picsource_key = default_picsource_key;
-            }
-            else if(type == ScreenType.file) {
-                // single file
-                info.picsource_service =
-                    new ComponentName(context, SinglePickService.class);
-            }
-            else if(type == ScreenType.folder) {
-                // from folder
-                info.picsource_service =
-                    new ComponentName(context, FolderPickService.class);
-            }
-            else if(type == ScreenType.buckets) {
-                // from album
-                info.picsource_service =
-                    new ComponentName(context, AlbumPickService.class);
-            }
-        }
+        RendererSettings.ScreenSettings screen = settings.getScreen(idx);
+        info.picsource_service = screen.picsource_service;
+        info.picsource_key = screen.picsource_key;
 
         // lazy picker
         info.picker = new PickerClient(
             info.picsource_service, info.picsource_key, idx, info);
         if(! info.picker.start()) {
             setNotAvailableStatus(info, idx);
-            info.loading_cnt = 0;
+            info.loading_cnt.set(0);
         }
 
-        // background color
-        String bgcolor = pref.getString(
-            MultiPictureSetting.getKey(
-                MultiPictureSetting.SCREEN_BGCOLOR_KEY, idx_key),
-            "use_default");
-        if("use_default".equals(bgcolor)) {
-            info.detect_bgcolor = default_detect_bgcolor;
-            info.bgcolor = default_bgcolor;
-        }
-        else if("auto_detect".equals(bgcolor)) {
-            info.detect_bgcolor = true;
-        }
-        else if("custom".equals(bgcolor)) {
-            info.detect_bgcolor = false;
-            info.bgcolor = pref.getInt(
-                MultiPictureSetting.getKey(
-                    MultiPictureSetting.SCREEN_BGCOLOR_CUSTOM_KEY, idx_key),
-                0xff000000);
-        }
-        else {
-            info.detect_bgcolor = false;
-            info.bgcolor = Color.parseColor(bgcolor);
+        loadPictureTextureSetting(info, screen);
+        loadPictureColorSetting(info, screen);
+
+        return info;
+    }
+
+    private void loadPictureTextureSetting(
+        PictureInfo info, RendererSettings.ScreenSettings screen)
+    {
+        info.detect_bgcolor = screen.detect_bgcolor;
+        info.bgcolor = screen.bgcolor;
+        info.clip_ratio = screen.clip_ratio;
+    }
+
+    private void loadPictureColorSetting(
+        PictureInfo info, RendererSettings.ScreenSettings screen)
+    {
+        info.saturation = screen.saturation;
+        info.opacity = screen.opacity;
+    }
+
+    private void invalidateScreen(int idx, int level)
+    {
+        if(pic != null) {
+            for(int i = 0; i < pic.length; i++) {
+                if(idx == i || idx == RendererSettings.SCREEN_IDX_ALL) {
+                    invalidateScreen(pic[i], i, level);
+                }
+            }
         }
 
-        // clip ratio
-        String clip = pref.getString(
-            MultiPictureSetting.getKey(
-                MultiPictureSetting.SCREEN_CLIP_KEY, idx_key),
-            "use_default");
-        if("use_default".equals(clip)) {
-            info.clip_ratio = default_clip_ratio;
+        if(keyguard_pic != null &&
+           (idx == -1 || idx == RendererSettings.SCREEN_IDX_ALL)) {
+            invalidateScreen(keyguard_pic, -1, level);
         }
-        else {
-            info.clip_ratio = Float.valueOf(clip);
+    }
+
+    private void invalidateScreen(PictureInfo info, int idx, int level)
+    {
+        RendererSettings.ScreenSettings screen = settings.getScreen(idx);
+
+        if(level >= INVALIDATE_PICSOURCE) {
+            // restarted at next draw
+            info.picsource_need_restart = true;
+            return;
         }
 
-        // saturation
-        String satu = pref.getString(
-            MultiPictureSetting.getKey(
-                MultiPictureSetting.SCREEN_SATURATION_KEY, idx_key),
-            "use_default");
-        if("use_default".equals(satu)) {
-            info.saturation = default_saturation;
+        synchronized(info) {
+            if(level >= INVALIDATE_TEXTURE) {
+                // decoded with old setting: decode again with new one
+                loadPictureTextureSetting(info, screen);
+                requeueScreenContentLoad(info, idx);
+                clearPictureBitmap(info);
+            }
+
+            loadPictureColorSetting(info, screen);
         }
-        else {
-            info.saturation = Float.valueOf(satu);
+    }
+
+    private void requeueScreenContentLoad(PictureInfo info, int idx)
+    {
+        // should be called with lock of info
+        ContentUpdateInfo update_info = info.peekUpdate();
+        if(update_info != null && update_info.content != null) {
+            // decoded one waiting to be replaced: still counted as loading
+            info.takeUpdate();
+            if(update_info.tex_info != null &&
+               update_info.tex_info.bmp != null) {
+                bitmap_pool.put(update_info.tex_info.bmp);
+            }
+            requeueScreenContent(info, idx, update_info);
+            loader_handler.sendEmptyMessage(MSG_APPLY_PENDING);
+        }
+
+        // in progress: cancelled one is discarded by loader
+        List<ContentUpdateInfo> loads =
+            new ArrayList<ContentUpdateInfo>(info.loads);
+        ContentUpdateInfo prefetch = info.prefetch;
+        cancelScreenContentLoad(info);
+
+        for(ContentUpdateInfo load : loads) {
+            if(load == prefetch && ! load.is_prefetch_requested) {
+                // prefetch again
+                info.prefetch = new ContentUpdateInfo(
+                    idx, info, load.content, load.force_reload);
+                info.prefetch.is_prefetch = true;
+                loader_handler
+                    .obtainMessage(MSG_UPDATE_SCREEN, info.prefetch)
+                    .sendToTarget();
+                continue;
+            }
+
+            info.loading_cnt.incrementAndGet();
+            requeueScreenContent(info, idx, load);
         }
+    }
 
-        // opacity
-        String opac = pref.getString(
-            MultiPictureSetting.getKey(
-                MultiPictureSetting.SCREEN_OPACITY_KEY, idx_key),
-            "use_default");
-        if("use_default".equals(opac)) {
-            info.opacity = default_opacity;
+    private void requeueScreenContent(PictureInfo info, int idx,
+                                      ContentUpdateInfo update_info)
+    {
+        if(update_info.content == null) {
+            // nothing to decode: decided again at load
+            sendUpdateScreen(idx, info, null, update_info.force_reload);
+        }
+        else if(update_info.content == info.cur_content) {
+            // reload: not to supersede other loads
+            sendUpdateScreen(idx, info, null, true);
         }
         else {
-            info.opacity = Float.valueOf(opac);
+            sendUpdateScreen(idx, info, update_info.content,
+                             update_info.force_reload);
         }
-
-        return info;
     }
 
     private void setNotAvailableStatus(PictureInfo info, int idx)
@@ -2071,28 +2470,131 @@ public class MultiPictureRenderer
 
     private void updateScreen(PictureInfo info, boolean fadeout)
     {
-        if(visible) {
-            if(info.loading_cnt == 0) {
-                info.loading_cnt += 1;
-                info.picker.sendGetNext();
+        synchronized(info) {
+            if(visible) {
+                if(info.loading_cnt.compareAndSet(0, 1)) {
+                    if(! usePrefetchedScreen(info)) {
+                        info.picker.sendGetNext();
+                    }
+                }
+
+                if(fadeout && info.loading_cnt.get() != 0) {
+                    if(info.status == PictureStatus.NORMAL ||
+                       info.status == PictureStatus.FADEIN) {
+                        info.setStatus(PictureStatus.FADEOUT);
+                    }
+                    else if(info.status == PictureStatus.NOT_AVAILABLE) {
+                        info.setStatus(PictureStatus.BLACKOUT);
+                    }
+                }
+            }
+            else if(! info.is_update_pending) {
+                if(info.loading_cnt.compareAndSet(0, 1)) {
+                    info.is_update_pending = true;
+                }
             }
+        }
+    }
 
-            if(fadeout && info.loading_cnt != 0) {
-                if(info.status == PictureStatus.NORMAL ||
-                   info.status == PictureStatus.FADEIN) {
-                    info.setStatus(PictureStatus.FADEOUT);
+    private void prefetchAllScreen()
+    {
+        if(! visible || pic == null || max_prefetch_bytes == 0) {
+            return;
+        }
+
+        // nearer screen first
+        List<Integer> idx_list = new ArrayList<Integer>();
+        for(int i = 0; i < pic.length; i++) {
+            idx_list.add(i);
+        }
+        if(use_keyguard_pic && keyguard_pic != null) {
+            idx_list.add(-1);
+        }
+        Collections.sort(idx_list, new Comparator<Integer>() {
+                public int compare(Integer i1, Integer i2) {
+                    return Float.compare(getLoadPriority(i1),
+                                         getLoadPriority(i2));
+                }
+            });
+
+        // as many as fit in memory
+        long used_bytes = 0;
+        for(int idx : idx_list) {
+            PictureInfo info = (idx >= 0 ? pic[idx] : keyguard_pic);
+            synchronized(info) {
+                if(info.prefetch != null) {
+                    used_bytes += getPrefetchBytes(info.prefetch);
+                    continue;
                 }
-                else if(info.status == PictureStatus.NOT_AVAILABLE) {
-                    info.setStatus(PictureStatus.BLACKOUT);
+                if(max_prefetch_bytes > 0 &&
+                   used_bytes + getPrefetchBytes(null) > max_prefetch_bytes) {
+                    break;
                 }
+                if(info.loading_cnt.get() != 0 ||
+                   info.status != PictureStatus.NORMAL) {
+                    continue;
+                }
+
+                info.prefetch = new ContentUpdateInfo(idx, info, null, false);
+                info.prefetch.is_prefetch = true;
+                info.is_prefetch_waiting = true;
+                info.picker.sendGetNext();
+                used_bytes += getPrefetchBytes(null);
             }
         }
-        else if(! info.is_update_pending) {
-            if(info.loading_cnt == 0) {
-                info.loading_cnt += 1;
-                info.is_update_pending = true;
+    }
+
+    private long getPrefetchBytes(ContentUpdateInfo prefetch)
+    {
+        // should be called with lock of prefetch.pic_info
+        TextureInfo tex_info = (prefetch != null && prefetch.is_finished ?
+                                prefetch.tex_info : null);
+        if(tex_info == null) {
+            // not decoded yet: as large as uncompressed one
+            return (long)max_screen_pixels * BYTES_PER_MB / PIXELS_PER_MB;
+        }
+
+        if(tex_info.etc1_data != null) {
+            return tex_info.etc1_data.capacity();
+        }
+        if(tex_info.bmp != null) {
+            return (long)tex_info.bmp.getRowBytes() * tex_info.bmp.getHeight();
+        }
+        return 0;
+    }
+
+    private void showScreen(PictureInfo info)
+    {
+        synchronized(info) {
+            if(info.is_update_pending && ! usePrefetchedScreen(info)) {
+                info.picker.sendGetNext();
             }
+            info.is_update_pending = false;
+        }
+    }
+
+    private boolean usePrefetchedScreen(PictureInfo info)
+    {
+        // should be called with lock of info
+        ContentUpdateInfo prefetch = info.prefetch;
+        if(prefetch == null || prefetch.is_prefetch_requested) {
+            return false;
+        }
+        if(prefetch.token != null && prefetch.token.isCancelled()) {
+            // superseded: released when its decode is finished
+            info.prefetch = null;
+            return false;
+        }
+
+        prefetch.is_prefetch_requested = true;
+        if(prefetch.is_finished) {
+            // already prepared: apply it
+            loader_handler
+                .obtainMessage(MSG_APPLY_SCREEN, prefetch)
+                .sendToTarget();
         }
+
+        return true;
     }
 
     private void sendUpdateScreen(int idx, PictureInfo info,
@@ -2106,167 +2608,336 @@ public class MultiPictureRenderer
             .sendToTarget();
     }
 
-    private void loadScreenContent(ContentUpdateInfo update_info)
+    private void loadScreenContent(final ContentUpdateInfo update_info)
     {
-        int idx = update_info.idx;
-        PictureInfo pic_info = update_info.pic_info;
-        PictureContentInfo content = update_info.content;
-        boolean force_reload = update_info.force_reload;
+        // order of request
+        update_info.seq = load_seq++;
 
-        int width;
-        int height;
-
-        synchronized(pic_whole_lock) {
-            // check target screen
-            if(pic == null ||
-               pic.length <= idx ||
-               (idx >= 0 && (pic[idx] == null ||
-                             pic[idx] != pic_info)) ||
-               (idx < 0 && (keyguard_pic == null ||
-                            keyguard_pic != pic_info))) {
-                return;
-            }
+        if(! prepareScreenContent(update_info)) {
+            // screen is already cleared
+            return;
+        }
 
-            // not retrieved, or just reload
-            if(content == null || content.getUri() == null) {
-                if(pic_info.cur_content == null) {
-                    if(pic_info.tex_info.has_content) {
-                        if(pic_info.tex_info.bmp != null) {
-                            pic_info.tex_info.bmp.recycle();
-                        }
+        if(update_info.content == null) {
+            // nothing to decode: status is updated by drawer in order
+            update_info.is_finished = true;
+            pending_updates.add(update_info);
+            applyPendingScreenContent();
+            return;
+        }
+
+        // decode in parallel: visible screen first
+        if(! update_info.is_prefetch) {
+            pending_updates.add(update_info);
+        }
+        loader_executor.execute(new DecodeTask(update_info));
+    }
+
+    private void finishScreenContent(ContentUpdateInfo update_info)
+    {
+        if(update_info.is_prefetch) {
+            PictureInfo pic_info = update_info.pic_info;
+            synchronized(pic_info) {
+                if(! update_info.is_prefetch_requested) {
+                    if(! update_info.token.isCancelled()) {
+                        // keep until next picture is requested
+                        update_info.is_finished = true;
+                        return;
                     }
-                    setNotAvailableStatus(pic_info, idx);
-                    pic_info.loading_cnt -= 1;
-                    return;
-                }
-                else if(force_reload ||
-                        ! pic_info.tex_info.has_content) {
-                    content = pic_info.cur_content;
-                    pic_info.cur_content = null;
-                }
-                else {
-                    pic_info.loading_cnt -= 1;
-                    if(pic_info.status == PictureStatus.BLACKOUT ||
-                       pic_info.status == PictureStatus.SPINNER ||
-                       pic_info.status == PictureStatus.FADEOUT) {
-                        pic_info.setStatus(PictureStatus.FADEIN);
+
+                    // not used
+                    pic_info.loads.remove(update_info);
+                    if(pic_info.prefetch == update_info) {
+                        pic_info.prefetch = null;
+                    }
+                    if(update_info.tex_info != null &&
+                       update_info.tex_info.bmp != null) {
+                        bitmap_pool.put(update_info.tex_info.bmp);
                     }
                     return;
                 }
-            }
 
-            // save current width/height
-            width = this.width;
-            height = this.height;
-        }
-
-        // load texture
-        TextureInfo tex_info = loadTexture(
-            content.getUri(), content.getOrientation(),
-            pic_info.clip_ratio, pic_info.saturation,
-            pic_info.detect_bgcolor, pic_info.bgcolor,
-            width, height);
-
-        synchronized(pic_whole_lock) {
-            while(true) {
-                // check target screen
-                if(pic == null ||
-                   pic.length <= idx ||
-                   (idx >= 0 && (pic[idx] == null ||
-                                 pic[idx] != pic_info)) ||
-                   (idx < 0 && (keyguard_pic == null ||
-                                keyguard_pic != pic_info))) {
-                    // already cleared: discard
-                    if(tex_info != null && tex_info.bmp != null) {
-                        tex_info.bmp.recycle();
-                    }
-                    return;
+                if(pic_info.prefetch == update_info) {
+                    pic_info.prefetch = null;
                 }
+            }
 
-                if(width != this.width ||
-                   height != this.height) {
-                    // retry to load same content
-                    if(tex_info != null && tex_info.bmp != null) {
-                        tex_info.bmp.recycle();
-                    }
-                    sendUpdateScreen(idx, pic_info, content, force_reload);
-                    return;
+            // apply as requested picture
+            pending_updates.add(update_info);
+        }
+
+        update_info.is_finished = true;
+        applyPendingScreenContent();
+    }
+
+    private void applyPendingScreenContent()
+    {
+        // apply results in requested order for each screen
+        HashSet<PictureInfo> waiting = new HashSet<PictureInfo>();
+        for(Iterator<ContentUpdateInfo> i = pending_updates.iterator();
+            i.hasNext(); ) {
+            ContentUpdateInfo info = i.next();
+            if(waiting.contains(info.pic_info)) {
+                continue;
+            }
+
+            synchronized(info.pic_info) {
+                if(! info.is_finished ||
+                   info.pic_info.peekUpdate() != null) {
+                    // wait for decode, or fade-out of previous one
+                    waiting.add(info.pic_info);
+                    continue;
                 }
 
-                // set status and progress
-                if(pic_info.status == PictureStatus.NOT_AVAILABLE ||
-                   ! pic_info.tex_info.has_content) {
-                    if(pic_info.status != PictureStatus.SPINNER) {
-                        pic_info.setStatus(PictureStatus.BLACKOUT);
-                    }
+                i.remove();
+                info.pic_info.loads.remove(info);
+
+                if(info.token.isCancelled()) {
+                    discardScreenContent(info);
                 }
                 else {
-                    if(pic_info.status == PictureStatus.NORMAL ||
-                       pic_info.status == PictureStatus.FADEIN) {
-                        pic_info.setStatus(PictureStatus.FADEOUT);
-                        drawer_handler.sendEmptyMessage(MSG_DRAW);
-                    }
+                    applyScreenContent(info);
                 }
+            }
+        }
+    }
 
-                if(pic_info.status != PictureStatus.BLACKOUT &&
-                   pic_info.status != PictureStatus.SPINNER) {
-                    // wait for fade-out
-                    try {
-                        pic_whole_lock.wait();
-                    }
-                    catch(InterruptedException e) {
-                        // ignore
-                    }
-                    continue;
-                }
+    private void cancelScreenContentLoad(PictureInfo pic_info)
+    {
+        // should be called with lock of pic_info
+        for(ContentUpdateInfo load : pic_info.loads) {
+            load.token.cancel();
+        }
+        pic_info.loads.clear();
 
-                break;
+        // finished prefetch waiting for request: never be applied
+        ContentUpdateInfo prefetch = pic_info.prefetch;
+        if(prefetch != null && prefetch.is_finished &&
+           ! prefetch.is_prefetch_requested) {
+            if(prefetch.tex_info != null && prefetch.tex_info.bmp != null) {
+                bitmap_pool.put(prefetch.tex_info.bmp);
             }
+            pic_info.prefetch = null;
+        }
+    }
 
-            if(tex_info != null) {
-                if(pic_info.tex_info.has_content) {
-                    // discard prev data
-                    if(pic_info.tex_info.bmp != null) {
-                        pic_info.tex_info.bmp.recycle();
-                    }
-                    else if(pic_info.tex_info.tex_id >= 0) {
-                        tex_info.tex_id = pic_info.tex_info.tex_id;
-                    }
+    private void discardScreenContent(ContentUpdateInfo update_info)
+    {
+        TextureInfo tex_info = update_info.tex_info;
+        if(tex_info != null && tex_info.bmp != null) {
+            bitmap_pool.put(tex_info.bmp);
+        }
+
+        // superseded by newer load
+        update_info.pic_info.loading_cnt.decrementAndGet();
+    }
+
+    private void reorderScreenContentLoad()
+    {
+        // recalc priority of pending decodes
+        synchronized(loader_queue) {
+            ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+            loader_queue.drainTo(tasks);
+            for(Runnable task : tasks) {
+                ((DecodeTask)task).updatePriority();
+            }
+            loader_queue.addAll(tasks);
+        }
+    }
+
+    private float getLoadPriority(int idx)
+    {
+        ScreenPosition pos = load_position;
+
+        if(idx < 0) {
+            // keyguard screen: first only if in keyguard
+            return (pos.is_in_keyguard ? 0 : KEYGUARD_LOAD_PRIORITY);
+        }
+
+        // distance from current screen
+        int xn = idx % pos.xcnt;
+        int yn = idx / pos.xcnt;
+        return Math.abs(xn - pos.xcur) + Math.abs(yn - pos.ycur);
+    }
+
+    private boolean prepareScreenContent(ContentUpdateInfo update_info)
+    {
+        int idx = update_info.idx;
+        PictureInfo pic_info = update_info.pic_info;
+        PictureContentInfo content = update_info.content;
+        boolean force_reload = update_info.force_reload;
+        boolean is_new_content = (content != null && content.getUri() != null);
+
+        // check target screen
+        if(! isCurrentScreen(idx, pic_info)) {
+            return false;
+        }
+
+        synchronized(pic_info) {
+            // not retrieved, or just reload
+            if(content == null || content.getUri() == null) {
+                // current one is only replaced by drawer: not cleared here
+                PictureContentInfo cur_content = pic_info.cur_content;
+                if(cur_content != null &&
+                   (force_reload || ! pic_info.tex_info.has_content)) {
+                    content = cur_content;
                 }
+                else {
+                    // keep current one, or not available: by drawer
+                    content = null;
+                }
+            }
 
-                // replace
-                pic_info.cur_content = content;
-                pic_info.tex_info = tex_info;
+            // save current width/height and setting
+            update_info.content = content;
+            update_info.width = this.width;
+            update_info.height = this.height;
+            update_info.params = new DecodeParams(
+                pic_info.clip_ratio,
+                (use_gpu_color ? 1f : pic_info.saturation),
+                pic_info.detect_bgcolor, pic_info.bgcolor,
+                use_etc1_texture, use_npot_texture, max_texture_size,
+                max_screen_pixels, max_work_pixels);
+
+            // new picture supersedes loads in progress
+            if(is_new_content && ! update_info.is_prefetch) {
+                cancelScreenContentLoad(pic_info);
             }
+            update_info.token = new LoadToken();
+            pic_info.loads.add(update_info);
+        }
 
-            if(pic_info.tex_info.has_content) {
-                // set status
-                pic_info.setStatus(PictureStatus.FADEIN);
+        return true;
+    }
+
+    private void applyScreenContent(ContentUpdateInfo update_info)
+    {
+        // should be called with lock of pic_info
+        PictureInfo pic_info = update_info.pic_info;
+
+        if(! isCurrentScreen(update_info.idx, pic_info)) {
+            // already cleared: discard
+            if(update_info.tex_info != null &&
+               update_info.tex_info.bmp != null) {
+                bitmap_pool.put(update_info.tex_info.bmp);
             }
-            else if(pic_info.cur_content != null) {
-                // reload cur_content: not change status
-                sendUpdateScreen(idx, pic_info, null, true);
-                return;
+            return;
+        }
+
+        // replace at drawer thread: after fade-out if needed
+        pic_info.offerUpdate(update_info);
+        drawer_handler.sendEmptyMessage(MSG_DRAW);
+    }
+
+    private boolean isCurrentScreen(int idx, PictureInfo pic_info)
+    {
+        // snapshot: may be replaced by drawer thread
+        PictureInfo[] cur_pic = pic;
+        PictureInfo cur_keyguard_pic = keyguard_pic;
+
+        return (cur_pic != null &&
+                cur_pic.length > idx &&
+                (idx < 0 || cur_pic[idx] == pic_info) &&
+                (idx >= 0 || cur_keyguard_pic == pic_info));
+    }
+
+    private boolean checkScreenContent(ContentUpdateInfo update_info)
+    {
+        // should be called by drawer thread
+        int idx = update_info.idx;
+        PictureInfo pic_info = update_info.pic_info;
+        TextureInfo tex_info = update_info.tex_info;
+
+        // check target screen
+        if(! isCurrentScreen(idx, pic_info)) {
+            // already cleared: discard
+            if(tex_info != null && tex_info.bmp != null) {
+                bitmap_pool.put(tex_info.bmp);
             }
-            else {
-                // picture not available
-                setNotAvailableStatus(pic_info, idx);
+            return false;
+        }
+
+        if(update_info.width != this.width ||
+           update_info.height != this.height) {
+            // retry to load same content
+            if(tex_info != null && tex_info.bmp != null) {
+                bitmap_pool.put(tex_info.bmp);
+            }
+            sendUpdateScreen(idx, pic_info, update_info.content,
+                             update_info.force_reload);
+            return false;
+        }
+
+        return true;
+    }
+
+    private void replaceScreenContent(ContentUpdateInfo update_info)
+    {
+        // should be called by drawer thread
+        int idx = update_info.idx;
+        PictureInfo pic_info = update_info.pic_info;
+        PictureContentInfo content = update_info.content;
+        TextureInfo tex_info = update_info.tex_info;
+
+        if(tex_info != null) {
+            if(pic_info.tex_info.has_content) {
+                // discard prev data
+                if(pic_info.tex_info.bmp != null) {
+                    bitmap_pool.put(pic_info.tex_info.bmp);
+                }
+                else if(pic_info.tex_info.tex_id >= 0) {
+                    tex_info.tex_id = pic_info.tex_info.tex_id;
+                }
             }
 
-            pic_info.loading_cnt -= 1;
+            // replace
+            pic_info.cur_content = content;
+            pic_info.tex_info = tex_info;
+        }
+        else if(content != null && content == pic_info.cur_content) {
+            // failed to reload current one
+            pic_info.cur_content = null;
+        }
 
-            // request to start redraw
-            drawer_handler.sendEmptyMessage(MSG_DRAW);
+        if(pic_info.tex_info.has_content && pic_info.cur_content != null) {
+            // set status: not to fade-in again if already shown
+            if(pic_info.status != PictureStatus.NORMAL &&
+               pic_info.status != PictureStatus.FADEIN) {
+                pic_info.setStatus(PictureStatus.FADEIN);
+            }
         }
+        else if(pic_info.cur_content != null) {
+            // reload cur_content: not change status
+            sendUpdateScreen(idx, pic_info, null, true);
+            return;
+        }
+        else {
+            // picture not available
+            pic_info.tex_info.etc1_data = null;
+            if(pic_info.tex_info.bmp != null) {
+                pic_info.tex_info.bmp.recycle();
+                pic_info.tex_info.bmp = null;
+            }
+            setNotAvailableStatus(pic_info, idx);
+        }
+
+        pic_info.loading_cnt.decrementAndGet();
+
+        // request to start redraw
+        drawer_handler.sendEmptyMessage(MSG_DRAW);
     }
 
     private TextureInfo loadTexture(Uri uri, int orientation,
-                                    float clip_ratio, float saturation,
-                                    boolean detect_bgcolor, int bgcolor,
-                                    int width, int height)
+                                    DecodeParams params,
+                                    int width, int height, LoadToken token)
     {
+        PictureDecoder decoder = new PictureDecoder(resolver, uri);
+        long work_pixels = 0;
         try {
-            InputStream instream;
+            if(token.isCancelled()) {
+                return null;
+            }
+
             BitmapFactory.Options opt;
 
             // orientation
@@ -2286,80 +2957,161 @@ public class MultiPictureRenderer
                 target_height = width;
             }
 
+            // modification time of picture: for caches
+            long mtime =
+                ((texture_cache.isEnabled() || params.detect_bgcolor) ?
+                 PictureUtils.getContentModifiedTime(resolver, uri) : -1);
+
+            // prepared texture in cache
+            String cache_key = getTextureCacheKey(
+                uri, mtime, orientation, params, width, height);
+            if(cache_key != null) {
+                TextureCache.Entry entry =
+                    texture_cache.get(cache_key, bitmap_pool);
+                if(entry != null) {
+                    TextureInfo tex_info = new TextureInfo();
+                    tex_info.bmp = entry.bmp;
+                    tex_info.sratio = entry.sratio;
+                    tex_info.tratio = entry.tratio;
+                    tex_info.xratio = entry.xratio;
+                    tex_info.yratio = entry.yratio;
+                    tex_info.bgcolor =
+                        (params.detect_bgcolor ?
+                         entry.bgcolor : params.bgcolor);
+                    tex_info.has_content = true;
+                    return tex_info;
+                }
+            }
+
             // query size of picture
             opt = new BitmapFactory.Options();
-            opt.inJustDecodeBounds = true;
-
-            instream = resolver.openInputStream(uri);
-            if(instream == null) {
+            if(! decoder.decodeBounds(opt)) {
                 return null;
             }
-            try {
-                BitmapFactory.decodeStream(instream, null, opt);
-                if(opt.outWidth < 0 || opt.outHeight < 0) {
-                    return null;
-                }
-            }
-            finally {
-                instream.close();
+            int pic_width = opt.outWidth;
+            int pic_height = opt.outHeight;
+            if(token.isCancelled()) {
+                return null;
             }
 
-            int ratio = 1;
-            while(max_work_pixels > 0 &&
-                  (opt.outWidth / ratio) *
-                  (opt.outHeight / ratio) > max_work_pixels) {
-                ratio += 1;
+            // subset to draw in original size
+            ClipInfo clip = getClipInfo(pic_width, pic_height,
+                                        target_width, target_height,
+                                        params.clip_ratio);
+            boolean use_region =
+                (PictureDecoder.isRegionDecodeSupported() &&
+                 (long)clip.width * clip.height * 4 <
+                 (long)pic_width * pic_height * 3);
+            int src_pixels_w = (use_region ? clip.width : pic_width);
+            int src_pixels_h = (use_region ? clip.height : pic_height);
+
+            // scale from original size to texture size
+            float tex_scale = Math.min(
+                Math.min(1, clip.scale),
+                Math.min((float)params.max_texture_size / clip.width,
+                         (float)params.max_texture_size / clip.height));
+
+            int ratio = SampleSizePlanner.getSampleSize(
+                src_pixels_w, src_pixels_h, tex_scale,
+                params.max_work_pixels);
+
+            // wait for other decodes: assume to decode whole picture
+            int whole_ratio = SampleSizePlanner.getSampleSize(
+                pic_width, pic_height, tex_scale, params.max_work_pixels);
+            work_pixels =
+                (long)(pic_width / whole_ratio) * (pic_height / whole_ratio);
+            decode_gate.acquire(work_pixels);
+            if(token.isCancelled()) {
+                return null;
             }
 
-            // read picture
+            // read picture: same stream as above if it can be rewound
             opt = new BitmapFactory.Options();
             opt.inDither = true;
             opt.inSampleSize = ratio;
             opt.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            token.setOptions(opt);
+
+            Bitmap bmp = null;
+            if(use_region) {
+                // decode only clipped area
+                bmp = decoder.decodeRegion(
+                    new Rect(clip.x, clip.y,
+                             clip.x + clip.width, clip.y + clip.height),
+                    opt);
+            }
+            if(bmp == null) {
+                use_region = false;
+                ratio = whole_ratio;
+                opt.inSampleSize = ratio;
+
+                if(BitmapPool.isDecodeReuseSupported()) {
+                    // reuse pooled bitmap if possible
+                    opt.inMutable = true;
+                    opt.inBitmap = (ratio != 1 && Build.VERSION.SDK_INT < 19 ?
+                                    null :
+                                    bitmap_pool.getForDecode(
+                                        (pic_width + ratio - 1) / ratio,
+                                        (pic_height + ratio - 1) / ratio,
+                                        opt.inPreferredConfig));
+                }
 
-            Bitmap bmp;
-            instream = resolver.openInputStream(uri);
-            if(instream == null) {
-                return null;
-            }
-            try {
-                bmp = BitmapFactory.decodeStream(instream, null, opt);
-                if(bmp == null) {
-                    return null;
+                try {
+                    bmp = decoder.decode(opt);
+                }
+                catch(IllegalArgumentException e) {
+                    // pooled bitmap is not reusable
+                    if(opt.inBitmap == null) {
+                        throw e;
+                    }
+                    opt.inBitmap.recycle();
+                    opt.inBitmap = null;
+                    bmp = decoder.decode(opt);
                 }
             }
-            finally {
-                instream.close();
+            token.setOptions(null);
+            if(bmp == null) {
+                // failed or cancelled
+                return null;
+            }
+            if(token.isCancelled()) {
+                bitmap_pool.put(bmp);
+                return null;
             }
 
             // calc geometry of subset to draw
-            int bw = bmp.getWidth();
-            int bh = bmp.getHeight();
-            float bxs = (float)target_width / bw;
-            float bys = (float)target_height / bh;
-            float bmax = Math.max(bxs, bys);
-            float bmin = Math.min(bxs, bys);
-            float bscale = (bmax * clip_ratio +
-                            bmin * (1 - clip_ratio));
-
-            float cw = bw - target_width / bscale;
-            float ch = bh - target_height / bscale;
-            int src_x = (int)(cw < 0 ? 0 : cw / 2);
-            int src_y = (int)(ch < 0 ? 0 : ch / 2);
-            int src_w = bw - src_x * 2;
-            int src_h = bh - src_y * 2;
-
-            float xratio = (cw < 0 ? bw * bscale / target_width : 1);
-            float yratio = (ch < 0 ? bh * bscale / target_height : 1);
-
-            int tex_width = Math.min(getLeastPowerOf2GE(
-                                         (int)(src_w * Math.min(1, bscale))),
-                                     max_texture_size);
-            int tex_height = Math.min(getLeastPowerOf2GE(
-                                          (int)(src_h * Math.min(1, bscale))),
-                                      max_texture_size);
-            while(max_screen_pixels > 0 &&
-                  tex_width * tex_height > max_screen_pixels) {
+            if(use_region) {
+                // whole of decoded bitmap is the subset
+                clip.scale *= (float)clip.width / bmp.getWidth();
+                clip.x = 0;
+                clip.y = 0;
+                clip.width = bmp.getWidth();
+                clip.height = bmp.getHeight();
+            }
+            else {
+                clip = getClipInfo(bmp.getWidth(), bmp.getHeight(),
+                                   target_width, target_height,
+                                   params.clip_ratio);
+            }
+
+            int src_x = clip.x;
+            int src_y = clip.y;
+            int src_w = clip.width;
+            int src_h = clip.height;
+            float bscale = clip.scale;
+            float xratio = clip.xratio;
+            float yratio = clip.yratio;
+
+            int tex_width = Math.min(
+                getTextureSize((int)(src_w * Math.min(1, bscale)),
+                               params.use_npot_texture),
+                params.max_texture_size);
+            int tex_height = Math.min(
+                getTextureSize((int)(src_h * Math.min(1, bscale)),
+                               params.use_npot_texture),
+                params.max_texture_size);
+            while(params.max_screen_pixels > 0 &&
+                  tex_width * tex_height > params.max_screen_pixels) {
                 if((double)tex_width / target_width >=
                    (double)tex_height / target_height) {
                     tex_width /= 2;
@@ -2403,18 +3155,54 @@ public class MultiPictureRenderer
             }
 
             // background color
-            tex_info.bgcolor =
-                (detect_bgcolor ?
-                 detectBackgroundColor(bmp, tex_info.xratio, tex_info.yratio) :
-                 bgcolor);
+            if(token.isCancelled()) {
+                bitmap_pool.put(bmp);
+                return null;
+            }
+            if(params.detect_bgcolor) {
+                String bgcolor_key = getBackgroundColorKey(
+                    uri, mtime, orientation, params.clip_ratio,
+                    width, height, tex_info.xratio, tex_info.yratio);
+                long color = (bgcolor_key != null ?
+                              bgcolor_index.get(bgcolor_key) : -1);
+                if(color < 0) {
+                    color = detectBackgroundColor(
+                        bmp, tex_info.xratio, tex_info.yratio);
+                    if(bgcolor_key != null) {
+                        bgcolor_index.put(bgcolor_key, (int)color);
+                    }
+                }
+                tex_info.bgcolor = (int)color;
+            }
+            else {
+                tex_info.bgcolor = params.bgcolor;
+            }
 
             // scale to texture size
+            if(token.isCancelled()) {
+                bitmap_pool.put(bmp);
+                return null;
+            }
             tex_info.bmp = createBitmap(
                 bmp, src_x, src_y, src_w, src_h,
-                mat, tw, th, saturation, tex_info.bgcolor);
-            bmp.recycle();
+                mat, tw, th, params.saturation, tex_info.bgcolor,
+                params.max_screen_pixels);
+            bitmap_pool.put(bmp);
 
             tex_info.has_content = true;
+
+            // save prepared texture
+            if(cache_key != null) {
+                TextureCache.Entry entry = new TextureCache.Entry();
+                entry.bmp = tex_info.bmp;
+                entry.sratio = tex_info.sratio;
+                entry.tratio = tex_info.tratio;
+                entry.xratio = tex_info.xratio;
+                entry.yratio = tex_info.yratio;
+                entry.bgcolor = tex_info.bgcolor;
+                texture_cache.put(cache_key, entry);
+            }
+
             return tex_info;
         }
         catch(Exception e) {
@@ -2423,6 +3211,145 @@ public class MultiPictureRenderer
         catch(OutOfMemoryError e) {
             return null;
         }
+        finally {
+            token.setOptions(null);
+            decoder.close();
+            if(work_pixels > 0) {
+                decode_gate.release(work_pixels);
+            }
+            picture_open_cnt.addAndGet(decoder.getOpenCount());
+            picture_saved_open_cnt.addAndGet(decoder.getSavedOpenCount());
+        }
+    }
+
+    private void compressTexture(TextureInfo tex_info, LoadToken token)
+    {
+        Bitmap bmp = tex_info.bmp;
+        if(bmp == null) {
+            return;
+        }
+
+        int w = bmp.getWidth();
+        int h = bmp.getHeight();
+        int used_w = (int)Math.ceil(w * tex_info.sratio);
+        int used_h = (int)Math.ceil(h * tex_info.tratio);
+
+        // ETC1 has no alpha: keep bitmap if used area is not opaque
+        int[] pixels = new int[w * 4];
+        if(bmp.hasAlpha()) {
+            for(int y = 0; y < used_h; y += 4) {
+                if(token.isCancelled()) {
+                    return;
+                }
+
+                int rows = Math.min(4, used_h - y);
+                bmp.getPixels(pixels, 0, w, 0, y, used_w, rows);
+                for(int i = 0; i < rows; i++) {
+                    for(int x = 0; x < used_w; x++) {
+                        if((pixels[i * w + x] >>> 24) != 0xff) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+
+        // encode whole bitmap
+        byte[] row = new byte[ETC1Encoder.getEncodedSize(w, 4)];
+        ByteBuffer data = ByteBuffer
+            .allocateDirect(ETC1Encoder.getEncodedSize(w, h))
+            .order(ByteOrder.nativeOrder());
+        ETC1Encoder encoder = new ETC1Encoder();
+
+        for(int y = 0; y < h; y += 4) {
+            if(token.isCancelled()) {
+                return;
+            }
+
+            int rows = Math.min(4, h - y);
+            bmp.getPixels(pixels, 0, w, 0, y, w, rows);
+            encoder.encodeRow(pixels, 0, w, w, rows, row, 0);
+            data.put(row);
+        }
+        data.position(0);
+
+        tex_info.etc1_data = data;
+        tex_info.etc1_width = w;
+        tex_info.etc1_height = h;
+        bitmap_pool.put(bmp);
+        tex_info.bmp = null;
+    }
+
+    private String getTextureCacheKey(Uri uri, long mtime, int orientation,
+                                      DecodeParams params,
+                                      int width, int height)
+    {
+        if(! texture_cache.isEnabled() || mtime < 0) {
+            // disabled, or can not detect modification
+            return null;
+        }
+
+        return (uri + "|" + mtime + "|" + orientation + "|" +
+                params.clip_ratio + "|" + params.saturation + "|" +
+                params.detect_bgcolor + "|" + width + "x" + height + "|" +
+                params.max_texture_size + "|" + params.max_screen_pixels +
+                "|" + params.use_npot_texture);
+    }
+
+    private static String getBackgroundColorKey(Uri uri, long mtime,
+                                                int orientation,
+                                                float clip_ratio,
+                                                int width, int height,
+                                                float xratio, float yratio)
+    {
+        if(mtime < 0) {
+            // can not detect modification
+            return null;
+        }
+
+        // detected color depends on clipped area and ratio flags
+        return (uri + "|" + mtime + "|" + orientation + "|" +
+                clip_ratio + "|" + width + "x" + height + "|" +
+                (xratio < 1) + "|" + (yratio < 1));
+    }
+
+    private static ClipInfo getClipInfo(int bw, int bh,
+                                        int target_width, int target_height,
+                                        float clip_ratio)
+    {
+        ClipInfo clip = new ClipInfo();
+
+        float bxs = (float)target_width / bw;
+        float bys = (float)target_height / bh;
+        float bmax = Math.max(bxs, bys);
+        float bmin = Math.min(bxs, bys);
+        clip.scale = (bmax * clip_ratio +
+                      bmin * (1 - clip_ratio));
+
+        float cw = bw - target_width / clip.scale;
+        float ch = bh - target_height / clip.scale;
+        clip.x = (int)(cw < 0 ? 0 : cw / 2);
+        clip.y = (int)(ch < 0 ? 0 : ch / 2);
+        clip.width = bw - clip.x * 2;
+        clip.height = bh - clip.y * 2;
+
+        clip.xratio = (cw < 0 ? bw * clip.scale / target_width : 1);
+        clip.yratio = (ch < 0 ? bh * clip.scale / target_height : 1);
+
+        return clip;
+    }
+
+    private static int getLoaderThreadCount()
+    {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                                    MAX_LOADER_THREADS));
+    }
+
+    private static int getTextureSize(int val, boolean use_npot_texture)
+    {
+        // exact size if non power of 2 texture is available
+        return (use_npot_texture ? Math.max(1, val) :
+                getLeastPowerOf2GE(val));
     }
 
     private static int getLeastPowerOf2GE(int val)
@@ -2452,121 +3379,52 @@ public class MultiPictureRenderer
             ratio += 1;
         }
 
-        Matrix m = new Matrix();
-        m.setScale(1f / ratio, 1f / ratio);
-        bmp = Bitmap.createBitmap(bmp, 0, 0, w, h, m, true);
-        w = bmp.getWidth();
-        h = bmp.getHeight();
-
-        final int rex = (xratio < 1 ? 200 : 100);
-        final int rey = (yratio < 1 ? 200 : 100);
-        final int eratio = 10;
-
-        int[] cnt = new int[0x1000];
-
-        // search most significant color in [0x000...0xfff]
-        Arrays.fill(cnt, 0);
-        for(int y = 0; y < h; y++) {
-            int ry = 0;
-            if(y < h / eratio) {
-                ry = (h - y * eratio) * rey / h;
+        Bitmap src = bmp;
+        if(ratio > 1) {
+            int sw = Math.round((float)w / ratio);
+            int sh = Math.round((float)h / ratio);
+            bmp = bitmap_pool.get(sw, sh, Bitmap.Config.ARGB_8888);
+            if(bmp != null) {
+                bmp.eraseColor(0);
             }
-            else if(y > h * (eratio - 1) / eratio) {
-                ry = (y * eratio - h * (eratio - 1)) * rey / h;
+            else {
+                bmp = Bitmap.createBitmap(sw, sh, Bitmap.Config.ARGB_8888);
             }
 
-            for(int x = 0; x < w; x++) {
-                int rx = 0;
-                if(x < w / eratio) {
-                    rx = (w - x * eratio) * rex / w;
-                }
-                else if(x > w * (eratio - 1) / eratio) {
-                    rx = (x * eratio - w * (eratio - 1)) * rex / w;
-                }
-
-                int c = bmp.getPixel(x, y);
-                c = ((c >> 12) & 0xf00 |
-                     (c >>  8) & 0x0f0 |
-                     (c >>  4) & 0x00f);
-
-                cnt[c] += 10 + rx + ry;
-            }
-        }
+            // fill whole bitmap: pooled one may have previous content
+            Canvas canvas = new Canvas(bmp);
+            Paint paint = new Paint();
+            paint.setFilterBitmap(true);
+            canvas.drawBitmap(src, null, new Rect(0, 0, sw, sh), paint);
 
-        // search max
-        int base_color = 0;
-        for(int i = 1; i < cnt.length; i++) {
-            if(cnt[base_color] < cnt[i]) {
-                base_color = i;
-            }
+            w = bmp.getWidth();
+            h = bmp.getHeight();
         }
 
-        // search most significant color more detailed
-        Arrays.fill(cnt, 0);
-        for(int y = 0; y < h; y++) {
-            int ry = 0;
-            if(y < h / eratio) {
-                ry = (h - y * eratio) * rey / h;
-            }
-            else if(y > h * (eratio - 1) / eratio) {
-                ry = (y * eratio - h * (eratio - 1)) * rey / h;
-            }
-
-            for(int x = 0; x < w; x++) {
-                int rx = 0;
-                if(x < w / eratio) {
-                    rx = (w - x * eratio) * rex / w;
-                }
-                else if(x > w * (eratio - 1) / eratio) {
-                    rx = (x * eratio - w * (eratio - 1)) * rex / w;
-                }
-
-                int c = bmp.getPixel(x, y);
-                int cb = ((c >> 12) & 0xf00 |
-                          (c >>  8) & 0x0f0 |
-                          (c >>  4) & 0x00f);
-                if(cb != base_color) {
-                    continue;
-                }
-
-                int cd = ((c >>  8) & 0xf00 |
-                          (c >>  4) & 0x0f0 |
-                          (c >>  0) & 0x00f);
-
-                cnt[cd] += 10 + rx + ry;
-            }
+        int color;
+        synchronized(bgcolor_detector) {
+            color = bgcolor_detector.detect(bmp, xratio, yratio);
         }
 
-        bmp.recycle();
-
-        // search max
-        int detail_color = 0;
-        for(int i = 1; i < cnt.length; i++) {
-            if(cnt[detail_color] < cnt[i]) {
-                detail_color = i;
-            }
+        if(bmp != src) {
+            bitmap_pool.put(bmp);
         }
 
-        int color = (((base_color & 0xf00) << 12) |
-                     ((base_color & 0x0f0) <<  8) |
-                     ((base_color & 0x00f) <<  4) |
-                     ((detail_color & 0xf00) << 8) |
-                     ((detail_color & 0x0f0) << 4) |
-                     ((detail_color & 0x00f) << 0));
         return color;
     }
 
     private Bitmap createBitmap(Bitmap src,
                                 int x, int y, int width, int height,
                                 Matrix m, int dst_width, int dst_height,
-                                float saturation, int bgcolor)
+                                float saturation, int bgcolor,
+                                int max_pixels)
     {
         Canvas canvas = new Canvas();
         Bitmap bmp;
         boolean has_alpha =
             (src.hasAlpha() || (m != null && ! m.rectStaysRect()));
         Bitmap.Config format =
-            getBitmapFormat(dst_width, dst_height, has_alpha);
+            getBitmapFormat(dst_width, dst_height, has_alpha, max_pixels);
         Paint paint = new Paint();
 
         Rect src_rect = new Rect(x, y, x + width, y + height);
@@ -2586,7 +3444,13 @@ public class MultiPictureRenderer
             }
         }
 
-        bmp = Bitmap.createBitmap(dst_width, dst_height, format);
+        bmp = bitmap_pool.get(dst_width, dst_height, format);
+        if(bmp != null) {
+            bmp.eraseColor(0);
+        }
+        else {
+            bmp = Bitmap.createBitmap(dst_width, dst_height, format);
+        }
 
         // color filter
         if(saturation != 1.0f) {
@@ -2616,11 +3480,12 @@ public class MultiPictureRenderer
         return bmp;
     }
 
-    private Bitmap.Config getBitmapFormat(int width, int height,
-                                          boolean has_alpha)
+    private static Bitmap.Config getBitmapFormat(int width, int height,
+                                                 boolean has_alpha,
+                                                 int max_pixels)
     {
-        boolean allow_8888 = (max_screen_pixels <= 0 ||
-                              width * height * 2 <= max_screen_pixels);
+        boolean allow_8888 = (max_pixels <= 0 ||
+                              width * height * 2 <= max_pixels);
         return (allow_8888 ? Bitmap.Config.ARGB_8888 :
                 has_alpha ? Bitmap.Config.ARGB_4444 :
                 Bitmap.Config.RGB_565);
@@ -2633,23 +3498,66 @@ public class MultiPictureRenderer
         public void onSharedPreferenceChanged(SharedPreferences pref,
                                               String key)
         {
-            boolean is_unneccesary_reload = false;
-            for(String k : UNNECCESARY_RELOAD_KEYS) {
-                if(k.equals(key)) {
-                    is_unneccesary_reload = true;
-                    break;
-                }
-            }
+            // parse here, not in drawer
+            published_settings = new RendererSettings(context, pref);
 
-            if(is_unneccesary_reload) {
+            if(isKeyOf(UNNECCESARY_RELOAD_KEYS, key)) {
                 drawer_handler.sendEmptyMessage(MSG_PREF_CHANGED_NORELOAD);
+                return;
             }
-            else {
+
+            int idx = RendererSettings.getScreenIndexOfKey(key);
+            if(idx == RendererSettings.SCREEN_IDX_NONE ||
+               isScreenKeyOf(RELOAD_SCREEN_KEYS, key)) {
+                // global setting: reload all
                 drawer_handler.sendEmptyMessage(MSG_PREF_CHANGED);
+                return;
             }
+
+            // minimum invalidation for the screen
+            int level;
+            if(isScreenKeyOf(REDRAW_SCREEN_KEYS, key) ||
+               (use_gpu_color && isScreenKeyOf(GPU_COLOR_SCREEN_KEYS, key))) {
+                level = INVALIDATE_REDRAW;
+            }
+            else if(isScreenKeyOf(TEXTURE_SCREEN_KEYS, key) ||
+                    isScreenKeyOf(GPU_COLOR_SCREEN_KEYS, key)) {
+                level = INVALIDATE_TEXTURE;
+            }
+            else {
+                level = INVALIDATE_PICSOURCE;
+            }
+
+            drawer_handler
+                .obtainMessage(MSG_PREF_CHANGED_SCREEN, idx, level)
+                .sendToTarget();
         }
     }
 
+    private static boolean isKeyOf(String[] keys, String key)
+    {
+        for(String k : keys) {
+            if(k.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isScreenKeyOf(String[] bases, String key)
+    {
+        // match "screen.%s.xxx" with any screen, or its default
+        for(String base : bases) {
+            int idx = base.indexOf("%s");
+            if((key.startsWith(base.substring(0, idx)) &&
+                key.endsWith(base.substring(idx + 2))) ||
+               key.equals(MultiPictureSetting.getKey(base, -1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private class Receiver extends BroadcastReceiver
     {
         @Override
@@ -2690,7 +3598,7 @@ public class MultiPictureRenderer
         hint.setTargetRow(idx >= 0 ? idx / xcnt : -1);
         hint.setScreenWidth(width);
         hint.setScreenHeight(height);
-        hint.setChangeFrequency(change_duration);
+        hint.setChangeFrequency(settings.change_duration);
 
         return hint;
     }
@@ -2725,6 +3633,31 @@ public class MultiPictureRenderer
         @Override
         protected void onReceiveNext(PictureContentInfo content)
         {
+            if(pic_info != null) {
+                synchronized(pic_info) {
+                    if(pic_info.is_prefetch_waiting) {
+                        pic_info.is_prefetch_waiting = false;
+
+                        ContentUpdateInfo prefetch = pic_info.prefetch;
+                        if(! prefetch.is_prefetch_requested &&
+                           content != null && content.getUri() != null) {
+                            // prepare next picture in advance
+                            prefetch.content = content;
+                            loader_handler
+                                .obtainMessage(MSG_UPDATE_SCREEN, prefetch)
+                                .sendToTarget();
+                            return;
+                        }
+
+                        pic_info.prefetch = null;
+                        if(! prefetch.is_prefetch_requested) {
+                            // nothing to prefetch
+                            return;
+                        }
+                    }
+                }
+            }
+
             sendUpdateScreen(idx, pic_info, content, false);
         }
 
@@ -2732,19 +3665,23 @@ public class MultiPictureRenderer
         protected void onNotifyChanged()
         {
             if(pic_info != null) {
-                synchronized(pic_whole_lock) {
+                synchronized(pic_info) {
                     if(visible) {
-                        pic_info.loading_cnt += 1;
-                        sendGetNext();
+                        pic_info.loading_cnt.incrementAndGet();
+                        if(! usePrefetchedScreen(pic_info)) {
+                            sendGetNext();
+                        }
                     }
                     else if(! pic_info.is_update_pending) {
-                        pic_info.loading_cnt += 1;
+                        pic_info.loading_cnt.incrementAndGet();
                         pic_info.is_update_pending = true;
                     }
 
                     if(pic_info.status == PictureStatus.NOT_AVAILABLE) {
-                        pic_info.setStatus(PictureStatus.BLACKOUT);
-                        drawer_handler.sendEmptyMessage(MSG_DRAW);
+                        // status is changed by drawer
+                        drawer_handler
+                            .obtainMessage(MSG_CHANGE_PIC_BY_NOTIFY, pic_info)
+                            .sendToTarget();
                     }
                 }
             }
@@ -46,7 +46,7 @@ public class MultiPictureSetting extends PreferenceActivity
     public static final String SCREEN_PICSOURCE_SERVICE_KEY =
         "screen.%s.picsource.service";
     public static final String SCREEN_PICSOURCE_SERIAL_KEY =
-        "screen.picsource.serial";
+        "screen.%s.picsource.serial";
     public static final String SCREEN_BGCOLOR_KEY = "screen.%s.bgcolor";
     public static final String SCREEN_BGCOLOR_CUSTOM_KEY =
         "screen.%s.bgcolor.custom";
@@ -505,15 +505,17 @@ public class MultiPictureSetting extends PreferenceActivity
     {
         String desc_key = getKey(SCREEN_PICSOURCE_DESC_KEY, key);
         String service_key = getKey(SCREEN_PICSOURCE_SERVICE_KEY, key);
+        String serial_key = getKey(SCREEN_PICSOURCE_SERIAL_KEY, key);
 
-        int serial = pref.getInt(SCREEN_PICSOURCE_SERIAL_KEY, 0);
+        // serial of each screen: to restart only the screen
+        int serial = pref.getInt(serial_key, 0);
 
         SharedPreferences.Editor editor = pref.edit();
         editor.putString(desc_key, desc);
         if(service != null) {
             editor.putString(service_key, service);
         }
-        editor.putInt(SCREEN_PICSOURCE_SERIAL_KEY, serial + 1);
+        editor.putInt(serial_key, serial + 1);
         editor.commit();
     }
 
@@ -0,0 +1,160 @@
+package org.tamanegi.wallpaper.multipicture;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Build;
+
+public class PictureDecoder
+{
+    private static final int BUFFER_SIZE = 16 * 1024;  // 16kBytes
+    private static final int MARK_LIMIT = 256 * 1024;  // 256kBytes
+
+    private ContentResolver resolver;
+    private Uri uri;
+
+    private InputStream instream = null;
+    private boolean is_consumed = false;
+
+    private int open_cnt = 0;
+    private int read_cnt = 0;
+
+    public PictureDecoder(ContentResolver resolver, Uri uri)
+    {
+        this.resolver = resolver;
+        this.uri = uri;
+    }
+
+    public boolean decodeBounds(BitmapFactory.Options opt) throws IOException
+    {
+        opt.inJustDecodeBounds = true;
+        try {
+            if(! prepareStream()) {
+                return false;
+            }
+
+            BitmapFactory.decodeStream(instream, null, opt);
+            return (opt.outWidth >= 0 && opt.outHeight >= 0);
+        }
+        finally {
+            opt.inJustDecodeBounds = false;
+        }
+    }
+
+    public Bitmap decode(BitmapFactory.Options opt) throws IOException
+    {
+        if(! prepareStream()) {
+            return null;
+        }
+
+        return BitmapFactory.decodeStream(instream, null, opt);
+    }
+
+    public Bitmap decodeRegion(Rect rect, BitmapFactory.Options opt)
+        throws IOException
+    {
+        if(! prepareStream()) {
+            return null;
+        }
+
+        BitmapRegionDecoder region_decoder;
+        try {
+            region_decoder = BitmapRegionDecoder.newInstance(instream, false);
+        }
+        catch(IOException e) {
+            // not supported format
+            return null;
+        }
+        if(region_decoder == null) {
+            return null;
+        }
+
+        try {
+            return region_decoder.decodeRegion(rect, opt);
+        }
+        finally {
+            region_decoder.recycle();
+        }
+    }
+
+    public static boolean isRegionDecodeSupported()
+    {
+        // BitmapRegionDecoder is available since API level 10
+        return (Build.VERSION.SDK_INT >= 10);
+    }
+
+    public void close()
+    {
+        if(instream != null) {
+            try {
+                instream.close();
+            }
+            catch(IOException e) {
+                // ignore
+            }
+            instream = null;
+        }
+    }
+
+    public int getOpenCount()
+    {
+        return open_cnt;
+    }
+
+    public int getSavedOpenCount()
+    {
+        return read_cnt - open_cnt;
+    }
+
+    private boolean prepareStream() throws IOException
+    {
+        read_cnt += 1;
+
+        if(instream != null && is_consumed) {
+            // rewind to the head of stream, or reopen if not possible
+            try {
+                instream.reset();
+            }
+            catch(IOException e) {
+                close();
+            }
+        }
+
+        if(instream == null) {
+            InputStream in = resolver.openInputStream(uri);
+            open_cnt += 1;
+            if(in == null) {
+                return false;
+            }
+
+            instream = new RewindableInputStream(in);
+            instream.mark(MARK_LIMIT);
+        }
+
+        is_consumed = true;
+        return true;
+    }
+
+    // BitmapFactory marks the stream by itself with a small limit:
+    // keep the larger limit to be able to rewind after header is read
+    private static class RewindableInputStream extends BufferedInputStream
+    {
+        private RewindableInputStream(InputStream in)
+        {
+            super(in, BUFFER_SIZE);
+        }
+
+        @Override
+        public synchronized void mark(int readlimit)
+        {
+            super.mark(Math.max(readlimit, marklimit));
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package org.tamanegi.wallpaper.multipicture;
+
+// picture status
+public enum PictureStatus
+{
+    NOT_AVAILABLE,                          // no pic
+        NORMAL,                             // normal picture
+        FADEOUT, BLACKOUT, SPINNER, FADEIN, // progress
+}
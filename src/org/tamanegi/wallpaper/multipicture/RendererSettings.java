@@ -0,0 +1,323 @@
+package org.tamanegi.wallpaper.multipicture;
+
+import org.tamanegi.wallpaper.multipicture.picsource.AlbumPickService;
+import org.tamanegi.wallpaper.multipicture.picsource.FolderPickService;
+import org.tamanegi.wallpaper.multipicture.picsource.SinglePickService;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Color;
+import android.graphics.PixelFormat;
+import android.view.WindowManager;
+
+// typed snapshot of preferences for renderer:
+//   parsed when preference is changed, and never modified after that
+public class RendererSettings
+{
+    // screen index of preference key: -1 for keyguard screen
+    public static final int SCREEN_IDX_ALL = -2;
+    public static final int SCREEN_IDX_NONE = -3;
+
+    private static final String SCREEN_KEY_PREFIX = "screen.";
+
+    // default of per screen keys which are not "screen.default.xxx"
+    private static final String[] RENAMED_DEFAULT_SCREEN_KEYS = {
+        MultiPictureSetting.SCREEN_CLIP_KEY,
+        MultiPictureSetting.SCREEN_RECURSIVE_KEY,
+        MultiPictureSetting.SCREEN_ORDER_KEY,
+    };
+
+    // screen types: for backward compatible
+    private static enum ScreenType
+    {
+        file, folder, buckets, use_default
+    }
+
+    // params for each screen: "use_default" is already resolved
+    public static class ScreenSettings
+    {
+        public final ComponentName picsource_service;
+        public final String picsource_key;
+        public final boolean detect_bgcolor;
+        public final int bgcolor;
+        public final float clip_ratio;
+        public final float saturation;
+        public final float opacity;
+
+        private ScreenSettings(ComponentName picsource_service,
+                               String picsource_key,
+                               boolean detect_bgcolor, int bgcolor,
+                               float clip_ratio,
+                               float saturation, float opacity)
+        {
+            this.picsource_service = picsource_service;
+            this.picsource_key = picsource_key;
+            this.detect_bgcolor = detect_bgcolor;
+            this.bgcolor = bgcolor;
+            this.clip_ratio = clip_ratio;
+            this.saturation = saturation;
+            this.opacity = opacity;
+        }
+    }
+
+    public final ScreenSettings default_screen;
+    public final ScreenSettings keyguard_screen;
+    private final ScreenSettings[] screens;
+
+    public final MultiPictureRenderer.TransitionType transition;
+    public final boolean show_reflection_top;
+    public final boolean show_reflection_bottom;
+    public final boolean use_mipmap;
+    public final boolean compress_texture;
+    public final boolean use_fullcolor;
+
+    public final boolean change_tap;
+    public final int change_duration;   // sec
+
+    public final boolean use_keyguard_pic;
+    public final MultiPictureRenderer.LauncherWorkaroundType
+        workaround_launcher;
+
+    public final int max_memory_size;   // MB
+    public final long texture_cache_size;
+
+    public RendererSettings(Context context, SharedPreferences pref)
+    {
+        // default screen
+        default_screen = loadScreen(context, pref,
+                                    MultiPictureSetting.SCREEN_DEFAULT, null);
+
+        // screens which have own preference
+        int cnt = 0;
+        for(String key : pref.getAll().keySet()) {
+            cnt = Math.max(cnt, getScreenIndexOfKey(key) + 1);
+        }
+        screens = new ScreenSettings[cnt];
+        for(int i = 0; i < cnt; i++) {
+            screens[i] = loadScreen(context, pref,
+                                    String.valueOf(i), default_screen);
+        }
+        keyguard_screen = loadScreen(context, pref,
+                                     MultiPictureSetting.SCREEN_KEYGUARD,
+                                     default_screen);
+
+        // draw setting
+        transition = MultiPictureRenderer.TransitionType.valueOf(
+            pref.getString("draw.transition", "random"));
+        show_reflection_top = pref.getBoolean("draw.reflection.top", false);
+        show_reflection_bottom = pref.getBoolean("draw.reflection", true);
+        use_mipmap = pref.getBoolean("draw.mipmap", false);
+        compress_texture = pref.getBoolean("draw.compress", false);
+
+        // full color or high color
+        int dpy_pfmt =
+            ((WindowManager)context.getSystemService(Context.WINDOW_SERVICE))
+            .getDefaultDisplay().getPixelFormat();
+        String fullcolor_str = pref.getString("color.fullcolor", "highcolor");
+        use_fullcolor = ("fullcolor".equals(fullcolor_str) &&
+                         dpy_pfmt != PixelFormat.RGB_565);
+
+        // folder setting
+        change_tap = pref.getBoolean("folder.changetap", true);
+        {
+            String min_str = pref.getString("folder.duration", null);
+            String sec_str = pref.getString("folder.duration_sec", null);
+            change_duration =
+                (sec_str != null ? Integer.parseInt(sec_str) :
+                 min_str != null ? Integer.parseInt(min_str) * 60 :
+                 60 * 60);
+        }
+
+        // keyguard screen
+        use_keyguard_pic = pref.getBoolean(
+            MultiPictureSetting.getKey(MultiPictureSetting.SCREEN_ENABLE_KEY,
+                                       MultiPictureSetting.SCREEN_KEYGUARD),
+            false);
+
+        // workaround
+        boolean workaround_sense_val =
+            pref.getBoolean("workaround.htcsense", true);
+        String workaround_launcher_str =
+            pref.getString("workaround.launcher", null);
+        if(workaround_launcher_str == null) {
+            workaround_launcher_str =
+                (pref.contains("workaround.htcsense") ?
+                 (workaround_sense_val ? "htc_sense" : "none") :
+                 context.getString(R.string.workaround_default));
+        }
+        workaround_launcher =
+            MultiPictureRenderer.LauncherWorkaroundType.valueOf(
+                workaround_launcher_str);
+
+        // maximum memory usage
+        String max_memory_str = pref.getString("memory.max", "auto");
+        if("auto".equals(max_memory_str)) {
+            max_memory_size = MultiPictureSetting.getAutoMemoryClass(context);
+        }
+        else {
+            max_memory_size = Integer.valueOf(max_memory_str);
+        }
+
+        // prepared texture cache
+        texture_cache_size =
+            (long)Integer.valueOf(pref.getString("cache.texture.max", "32")) *
+            1024 * 1024;
+    }
+
+    // idx: -1 for keyguard screen
+    public ScreenSettings getScreen(int idx)
+    {
+        if(idx < 0) {
+            return keyguard_screen;
+        }
+        if(idx < screens.length) {
+            return screens[idx];
+        }
+
+        // no own preference: same as default
+        return default_screen;
+    }
+
+    public static int getScreenIndexOfKey(String key)
+    {
+        for(String base : RENAMED_DEFAULT_SCREEN_KEYS) {
+            if(key.equals(MultiPictureSetting.getKey(base, -1))) {
+                return SCREEN_IDX_ALL;
+            }
+        }
+
+        // "screen.<index>.xxx"
+        int end = key.indexOf('.', SCREEN_KEY_PREFIX.length());
+        if(! key.startsWith(SCREEN_KEY_PREFIX) || end < 0) {
+            return SCREEN_IDX_NONE;
+        }
+
+        String idx_key = key.substring(SCREEN_KEY_PREFIX.length(), end);
+        if(MultiPictureSetting.SCREEN_DEFAULT.equals(idx_key)) {
+            return SCREEN_IDX_ALL;
+        }
+        if(MultiPictureSetting.SCREEN_KEYGUARD.equals(idx_key)) {
+            return -1;
+        }
+
+        try {
+            return Integer.parseInt(idx_key);
+        }
+        catch(NumberFormatException e) {
+            return SCREEN_IDX_NONE;
+        }
+    }
+
+    // def: null for default screen itself
+    private static ScreenSettings loadScreen(Context context,
+                                             SharedPreferences pref,
+                                             String idx_key,
+                                             ScreenSettings def)
+    {
+        boolean is_default = (def == null);
+        String use_default = (is_default ? null : "use_default");
+
+        // picture source service
+        ComponentName picsource_service = null;
+        String picsource_key = idx_key;
+
+        String service_str = pref.getString(
+            MultiPictureSetting.getKey(
+                MultiPictureSetting.SCREEN_PICSOURCE_SERVICE_KEY, idx_key),
+            null);
+        if(! is_default && "".equals(service_str)) {
+            // same as default
+            picsource_service = def.picsource_service;
+            picsource_key = def.picsource_key;
+        }
+        else if(service_str != null) {
+            // lazy picker
+            picsource_service =
+                ComponentName.unflattenFromString(service_str);
+        }
+        else {
+            // backward compatible
+            String type_str = pref.getString(
+                MultiPictureSetting.getKey(
+                    MultiPictureSetting.SCREEN_TYPE_KEY, idx_key),
+                (is_default ? "buckets" : null));
+            String fname = pref.getString(
+                MultiPictureSetting.getKey(
+                    MultiPictureSetting.SCREEN_FILE_KEY, idx_key), null);
+
+            ScreenType type =
+                ((type_str == null && fname != null) ? ScreenType.file :
+                 type_str == null ? ScreenType.use_default :
+                 ScreenType.valueOf(type_str));
+
+            if(type == ScreenType.use_default) {
+                // same as default
+                picsource_service = def.picsource_service;
+                picsource_key = def.picsource_key;
+            }
+            else if(type == ScreenType.file) {
+                // single file
+                picsource_service =
+                    new ComponentName(context, SinglePickService.class);
+            }
+            else if(type == ScreenType.folder) {
+                // from folder
+                picsource_service =
+                    new ComponentName(context, FolderPickService.class);
+            }
+            else if(type == ScreenType.buckets) {
+                // from album
+                picsource_service =
+                    new ComponentName(context, AlbumPickService.class);
+            }
+        }
+
+        // background color
+        boolean detect_bgcolor = false;
+        int bgcolor = 0;
+        String bgcolor_str = pref.getString(
+            MultiPictureSetting.getKey(
+                MultiPictureSetting.SCREEN_BGCOLOR_KEY, idx_key),
+            (is_default ? "auto_detect" : use_default));
+        if("use_default".equals(bgcolor_str)) {
+            detect_bgcolor = def.detect_bgcolor;
+            bgcolor = def.bgcolor;
+        }
+        else if("auto_detect".equals(bgcolor_str)) {
+            detect_bgcolor = true;
+        }
+        else if("custom".equals(bgcolor_str)) {
+            bgcolor = pref.getInt(
+                MultiPictureSetting.getKey(
+                    MultiPictureSetting.SCREEN_BGCOLOR_CUSTOM_KEY, idx_key),
+                0xff000000);
+        }
+        else {
+            bgcolor = Color.parseColor(bgcolor_str);
+        }
+
+        // clip ratio, saturation, opacity
+        float clip_ratio = getFloat(
+            pref, MultiPictureSetting.SCREEN_CLIP_KEY, idx_key,
+            (is_default ? 0.5f : def.clip_ratio));
+        float saturation = getFloat(
+            pref, MultiPictureSetting.SCREEN_SATURATION_KEY, idx_key,
+            (is_default ? 1f : def.saturation));
+        float opacity = getFloat(
+            pref, MultiPictureSetting.SCREEN_OPACITY_KEY, idx_key,
+            (is_default ? 1f : def.opacity));
+
+        return new ScreenSettings(picsource_service, picsource_key,
+                                  detect_bgcolor, bgcolor,
+                                  clip_ratio, saturation, opacity);
+    }
+
+    private static float getFloat(SharedPreferences pref,
+                                  String base, String idx_key, float def)
+    {
+        String val = pref.getString(
+            MultiPictureSetting.getKey(base, idx_key), "use_default");
+        return ("use_default".equals(val) ? def : Float.valueOf(val));
+    }
+}
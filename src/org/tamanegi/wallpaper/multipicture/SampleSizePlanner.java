@@ -0,0 +1,25 @@
+package org.tamanegi.wallpaper.multipicture;
+
+// sample size of decoder: rest of scale is done by filtered resize
+public class SampleSizePlanner
+{
+    // power of 2 sample size which decoder can handle natively:
+    // fit into max_pixels, but not smaller than scale requires
+    public static int getSampleSize(int width, int height,
+                                    float scale, int max_pixels)
+    {
+        int ratio = 1;
+
+        while(max_pixels > 0 &&
+              (long)(width / ratio) * (height / ratio) > max_pixels) {
+            ratio *= 2;
+        }
+
+        while(scale > 0 && ratio * 2 * scale <= 1 &&
+              width / (ratio * 2) > 0 && height / (ratio * 2) > 0) {
+            ratio *= 2;
+        }
+
+        return ratio;
+    }
+}
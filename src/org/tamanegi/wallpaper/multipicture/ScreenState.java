@@ -0,0 +1,92 @@
+package org.tamanegi.wallpaper.multipicture;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+// status of a screen:
+//   status and progress are changed only by drawer thread,
+//   next update is handed from loader thread without lock
+public class ScreenState<T>
+{
+    public static final int FADE_TOTAL_DURATION = 500;     // msec
+    public static final int BLACKOUT_TOTAL_DURATION = 500; // msec
+
+    // read directly by other threads
+    volatile PictureStatus status = PictureStatus.BLACKOUT;
+    volatile int progress = 1;
+
+    private AtomicReference<T> next_update = new AtomicReference<T>();
+
+    public void setStatus(PictureStatus status)
+    {
+        if((status == PictureStatus.FADEOUT &&
+            this.status == PictureStatus.FADEIN) ||
+           (status == PictureStatus.FADEIN &&
+            this.status == PictureStatus.FADEOUT)) {
+            progress = Math.max(FADE_TOTAL_DURATION - progress, 1);
+        }
+        else {
+            progress = 1;
+        }
+        this.status = status;
+    }
+
+    public void addProgress(int step)
+    {
+        progress += step;
+    }
+
+    // loader thread: false if previous one is not taken yet
+    public boolean offerUpdate(T update)
+    {
+        return next_update.compareAndSet(null, update);
+    }
+
+    public T peekUpdate()
+    {
+        return next_update.get();
+    }
+
+    // drawer thread, or loader thread to discard
+    public T takeUpdate()
+    {
+        return next_update.getAndSet(null);
+    }
+
+    // drawer thread: fade-out to be replaced, and progress of fade
+    public void updateStatus(boolean is_visible, boolean is_replacing)
+    {
+        if(is_replacing &&
+           (status == PictureStatus.NORMAL ||
+            status == PictureStatus.FADEIN)) {
+            // waiting to be replaced
+            setStatus(PictureStatus.FADEOUT);
+        }
+
+        if(status == PictureStatus.FADEIN) {
+            if((is_visible && progress >= FADE_TOTAL_DURATION) ||
+               (! is_visible)) {
+                setStatus(PictureStatus.NORMAL);
+            }
+        }
+        else if(status == PictureStatus.FADEOUT) {
+            if((is_visible && progress >= FADE_TOTAL_DURATION) ||
+               (! is_visible)) {
+                setStatus(PictureStatus.BLACKOUT);
+            }
+        }
+        else if(status == PictureStatus.BLACKOUT) {
+            if((is_visible && progress >= BLACKOUT_TOTAL_DURATION) ||
+               (! is_visible)) {
+                setStatus(PictureStatus.SPINNER);
+            }
+        }
+    }
+
+    // drawer thread: nothing is shown, or faded out
+    public boolean isReplaceable()
+    {
+        return (status == PictureStatus.BLACKOUT ||
+                status == PictureStatus.SPINNER ||
+                status == PictureStatus.NOT_AVAILABLE);
+    }
+}
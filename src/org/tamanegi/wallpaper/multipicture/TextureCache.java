@@ -0,0 +1,306 @@
+package org.tamanegi.wallpaper.multipicture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+
+public class TextureCache
+{
+    private static final int MAGIC = 0x4d505443; // "MPTC"
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".tex";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // temp file older than this is left by interrupted write
+    private static final long TEMP_EXPIRE_MSEC = 10 * 60 * 1000;
+
+    // prepared texture and its params
+    public static class Entry
+    {
+        public Bitmap bmp;
+        public float sratio;
+        public float tratio;
+        public float xratio;
+        public float yratio;
+        public int bgcolor;
+    }
+
+    private File dir;
+    private long max_bytes = 0;
+
+    // file name to size, least recently used first: guarded by this
+    private LinkedHashMap<String, Long> index = null;
+    private long total_bytes = 0;
+
+    public TextureCache(File dir)
+    {
+        this.dir = dir;
+    }
+
+    public synchronized void setMaxSize(long max_bytes)
+    {
+        this.max_bytes = max_bytes;
+        trim();
+    }
+
+    public synchronized boolean isEnabled()
+    {
+        return (max_bytes > 0);
+    }
+
+    // file is read without lock: replaced or deleted file is still readable
+    public Entry get(String key, BitmapPool pool)
+    {
+        File file = getFile(key);
+        Long size;
+        synchronized(this) {
+            size = (max_bytes > 0 ? getIndex().get(file.getName()) : null);
+            if(size == null) {
+                return null;
+            }
+        }
+
+        long mtime = file.lastModified();
+        Bitmap bmp = null;
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                if(in.readInt() != MAGIC ||
+                   in.readInt() != VERSION ||
+                   ! key.equals(in.readUTF())) {
+                    return null;
+                }
+
+                Entry entry = new Entry();
+                int width = in.readInt();
+                int height = in.readInt();
+                Bitmap.Config config = Bitmap.Config.valueOf(in.readUTF());
+                entry.sratio = in.readFloat();
+                entry.tratio = in.readFloat();
+                entry.xratio = in.readFloat();
+                entry.yratio = in.readFloat();
+                entry.bgcolor = in.readInt();
+                int bytes = in.readInt();
+
+                bmp = pool.get(width, height, config);
+                if(bmp == null) {
+                    bmp = Bitmap.createBitmap(width, height, config);
+                }
+                if(bmp.getRowBytes() * bmp.getHeight() != bytes) {
+                    return null;
+                }
+
+                // read pixels at once
+                MappedByteBuffer buf = in.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, in.getFilePointer(), bytes);
+                bmp.copyPixelsFromBuffer(buf);
+
+                entry.bmp = bmp;
+                bmp = null;
+                return entry;
+            }
+            finally {
+                in.close();
+                if(bmp != null) {
+                    pool.put(bmp);
+                }
+            }
+        }
+        catch(Exception e) {
+            remove(file, size, mtime);
+            return null;
+        }
+    }
+
+    // file is written without lock, and renamed into place
+    public void put(String key, Entry entry)
+    {
+        Bitmap bmp = entry.bmp;
+        int bytes = bmp.getRowBytes() * bmp.getHeight();
+        synchronized(this) {
+            if(max_bytes <= 0 || bytes > max_bytes) {
+                return;
+            }
+        }
+
+        File file = getFile(key);
+        File temp;
+        try {
+            // own temp file: same key may be written by other decodes
+            dir.mkdirs();
+            temp = File.createTempFile(file.getName(), TEMP_SUFFIX, dir);
+        }
+        catch(IOException e) {
+            return;
+        }
+
+        long size;
+        try {
+            RandomAccessFile out = new RandomAccessFile(temp, "rw");
+            try {
+                out.setLength(0);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(key);
+                out.writeInt(bmp.getWidth());
+                out.writeInt(bmp.getHeight());
+                out.writeUTF(bmp.getConfig().name());
+                out.writeFloat(entry.sratio);
+                out.writeFloat(entry.tratio);
+                out.writeFloat(entry.xratio);
+                out.writeFloat(entry.yratio);
+                out.writeInt(entry.bgcolor);
+                out.writeInt(bytes);
+
+                // write pixels at once
+                MappedByteBuffer buf = out.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE,
+                    out.getFilePointer(), bytes);
+                bmp.copyPixelsToBuffer(buf);
+                buf.force();
+            }
+            finally {
+                out.close();
+            }
+
+            size = temp.length();
+            if(! temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+        }
+        catch(Exception e) {
+            temp.delete();
+            return;
+        }
+
+        add(file, size);
+    }
+
+    public synchronized void clear()
+    {
+        getIndex().clear();
+        total_bytes = 0;
+
+        File[] files = dir.listFiles();
+        if(files == null) {
+            return;
+        }
+
+        for(File file : files) {
+            file.delete();
+        }
+    }
+
+    private synchronized void add(File file, long size)
+    {
+        Long prev = getIndex().put(file.getName(), size);
+        total_bytes += size - (prev != null ? prev : 0);
+        trim();
+    }
+
+    private synchronized void remove(File file, long size, long mtime)
+    {
+        // broken file only: may be replaced by other put while reading
+        Long cur = getIndex().get(file.getName());
+        if(cur == null || cur != size || file.lastModified() != mtime) {
+            return;
+        }
+
+        getIndex().remove(file.getName());
+        total_bytes -= size;
+        file.delete();
+    }
+
+    private LinkedHashMap<String, Long> getIndex()
+    {
+        // should be called with lock
+        if(index != null) {
+            return index;
+        }
+
+        index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        total_bytes = 0;
+
+        File[] files = dir.listFiles();
+        if(files == null) {
+            return index;
+        }
+
+        // least recently written first: access order is kept in memory
+        Arrays.sort(files, new Comparator<File>() {
+                public int compare(File f1, File f2) {
+                    long t1 = f1.lastModified();
+                    long t2 = f2.lastModified();
+                    return (t1 < t2 ? -1 : t1 > t2 ? +1 : 0);
+                }
+            });
+
+        long expire_time = System.currentTimeMillis() - TEMP_EXPIRE_MSEC;
+        for(File file : files) {
+            if(! file.getName().endsWith(SUFFIX)) {
+                // interrupted write, not one in progress
+                if(file.lastModified() < expire_time) {
+                    file.delete();
+                }
+                continue;
+            }
+
+            long size = file.length();
+            index.put(file.getName(), size);
+            total_bytes += size;
+        }
+
+        return index;
+    }
+
+    private void trim()
+    {
+        // should be called with lock
+        Iterator<Map.Entry<String, Long>> iter =
+            getIndex().entrySet().iterator();
+        while(total_bytes > max_bytes && iter.hasNext()) {
+            Map.Entry<String, Long> item = iter.next();
+            total_bytes -= item.getValue();
+            iter.remove();
+            new File(dir, item.getKey()).delete();
+        }
+    }
+
+    private File getFile(String key)
+    {
+        return new File(dir, getDigest(key) + SUFFIX);
+    }
+
+    private static String getDigest(String key)
+    {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(key.getBytes("UTF-8"));
+
+            StringBuilder str = new StringBuilder();
+            for(byte b : digest) {
+                str.append(String.format("%02x", b & 0xff));
+            }
+            return str.toString();
+        }
+        catch(NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+        catch(IOException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
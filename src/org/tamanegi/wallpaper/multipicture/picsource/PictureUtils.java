@@ -269,6 +269,40 @@ public class PictureUtils
         return 0;
     }
 
+    public static long getContentModifiedTime(ContentResolver resolver,
+                                              Uri uri)
+    {
+        if(ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            // "file:///..."
+            long mtime = new File(uri.getPath()).lastModified();
+            return (mtime > 0 ? mtime : -1);
+        }
+
+        // get from media store
+        try {
+            Cursor cur = resolver.query(
+                uri,
+                new String[] { MediaStore.MediaColumns.DATE_MODIFIED },
+                null, null, null);
+
+            if(cur != null) {
+                try {
+                    if(cur.moveToFirst() && ! cur.isNull(0)) {
+                        return cur.getLong(0) * 1000; // sec to msec
+                    }
+                }
+                finally {
+                    cur.close();
+                }
+            }
+        }
+        catch(Exception e) {
+            // ignore
+        }
+
+        return -1;
+    }
+
     public static List<File> listFoldersRecursive(File folder)
     {
         ArrayList<File> list = new ArrayList<File>();
@@ -0,0 +1,179 @@
+package org.tamanegi.gles;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class ETC1EncoderTest extends TestCase
+{
+    // intensity modifiers of ETC1 specification
+    private static final int[][] MODIFIER_TABLE = {
+        {  2,   8,  -2,   -8 },
+        {  5,  17,  -5,  -17 },
+        {  9,  29,  -9,  -29 },
+        { 13,  42, -13,  -42 },
+        { 18,  60, -18,  -60 },
+        { 24,  80, -24,  -80 },
+        { 33, 106, -33, -106 },
+        { 47, 183, -47, -183 },
+    };
+
+    public void testSolidBlock()
+    {
+        // differential mode: base 16 (132), table 1, all pixels -5
+        int[] pixels = new int[16];
+        Arrays.fill(pixels, 0xff808080);
+
+        byte[] out = encode(pixels);
+        assertBytes(new int[] {
+                0x80, 0x80, 0x80, 0x26, 0xff, 0xff, 0x00, 0x00,
+            }, out);
+
+        int[] decoded = decode(out);
+        for(int i = 0; i < 16; i++) {
+            assertEquals(0x7f7f7f, decoded[i]);
+        }
+    }
+
+    public void testSplitBlock()
+    {
+        // individual mode: left half black, right half white
+        int[] pixels = new int[16];
+        for(int i = 0; i < 16; i++) {
+            pixels[i] = (i % 4 < 2 ? 0xff000000 : 0xffffffff);
+        }
+
+        byte[] out = encode(pixels);
+        assertBytes(new int[] {
+                0x0f, 0x0f, 0x0f, 0x00, 0x00, 0xff, 0x00, 0x00,
+            }, out);
+
+        int[] decoded = decode(out);
+        for(int i = 0; i < 16; i++) {
+            assertEquals(pixels[i] & 0xffffff, decoded[i]);
+        }
+    }
+
+    public void testGradientBlock()
+    {
+        // decoded pixels should be close to original
+        int[] pixels = new int[16];
+        for(int i = 0; i < 16; i++) {
+            int x = i % 4;
+            int y = i / 4;
+            pixels[i] = (0xff000000 |
+                         ((64 + x * 16) << 16) |
+                         ((96 + y * 12) << 8) |
+                         (128 + (x + y) * 8));
+        }
+
+        int[] decoded = decode(encode(pixels));
+        for(int i = 0; i < 16; i++) {
+            for(int shift = 0; shift <= 16; shift += 8) {
+                int d = ((pixels[i] >> shift) & 0xff) -
+                    ((decoded[i] >> shift) & 0xff);
+                assertTrue("pixel " + i + ": " + d, Math.abs(d) <= 24);
+            }
+        }
+    }
+
+    public void testRowPadding()
+    {
+        // 6x3 image: 2 blocks, edge pixels are repeated
+        int width = 6;
+        int rows = 3;
+        int[] pixels = new int[width * rows];
+        for(int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | (i * 0x0b0d11);
+        }
+
+        byte[] out = new byte[ETC1Encoder.getEncodedSize(width, rows)];
+        assertEquals(2 * ETC1Encoder.BLOCK_BYTES, out.length);
+        new ETC1Encoder().encodeRow(pixels, 0, width, width, rows, out, 0);
+
+        for(int bx = 0; bx < width; bx += 4) {
+            int[] block = new int[16];
+            for(int y = 0; y < 4; y++) {
+                for(int x = 0; x < 4; x++) {
+                    int px = Math.min(bx + x, width - 1);
+                    int py = Math.min(y, rows - 1);
+                    block[y * 4 + x] = pixels[py * width + px];
+                }
+            }
+
+            byte[] expected = encode(block);
+            for(int i = 0; i < ETC1Encoder.BLOCK_BYTES; i++) {
+                assertEquals(expected[i],
+                             out[bx / 4 * ETC1Encoder.BLOCK_BYTES + i]);
+            }
+        }
+    }
+
+    private static byte[] encode(int[] pixels)
+    {
+        byte[] out = new byte[ETC1Encoder.BLOCK_BYTES];
+        new ETC1Encoder().encodeBlock(pixels, out, 0);
+        return out;
+    }
+
+    private static void assertBytes(int[] expected, byte[] actual)
+    {
+        assertEquals(expected.length, actual.length);
+        for(int i = 0; i < expected.length; i++) {
+            assertEquals("byte " + i, expected[i], actual[i] & 0xff);
+        }
+    }
+
+    // decode by specification: RGB pixels in row major order
+    private static int[] decode(byte[] data)
+    {
+        long code = 0;
+        for(int i = 0; i < 8; i++) {
+            code = (code << 8) | (data[i] & 0xff);
+        }
+
+        boolean diff = ((code >>> 33) & 1) != 0;
+        boolean flip = ((code >>> 32) & 1) != 0;
+        int[] table = {
+            (int)((code >>> 37) & 7), (int)((code >>> 34) & 7),
+        };
+
+        int[][] base = new int[2][3];
+        for(int c = 0; c < 3; c++) {
+            int shift = 56 - c * 8;
+            if(diff) {
+                int c1 = (int)((code >>> (shift + 3)) & 0x1f);
+                int d = (int)((code >>> shift) & 7);
+                int c2 = c1 + (d >= 4 ? d - 8 : d);
+                base[0][c] = (c1 << 3) | (c1 >> 2);
+                base[1][c] = (c2 << 3) | (c2 >> 2);
+            }
+            else {
+                int c1 = (int)((code >>> (shift + 4)) & 0xf);
+                int c2 = (int)((code >>> shift) & 0xf);
+                base[0][c] = (c1 << 4) | c1;
+                base[1][c] = (c2 << 4) | c2;
+            }
+        }
+
+        int[] pixels = new int[16];
+        for(int y = 0; y < 4; y++) {
+            for(int x = 0; x < 4; x++) {
+                int bit = x * 4 + y;
+                int idx = (int)((((code >>> (16 + bit)) & 1) << 1) |
+                                ((code >>> bit) & 1));
+                int sub = (flip ? (y < 2 ? 0 : 1) : (x < 2 ? 0 : 1));
+                int mod = MODIFIER_TABLE[table[sub]][idx];
+
+                int rgb = 0;
+                for(int c = 0; c < 3; c++) {
+                    int v = Math.max(0, Math.min(255, base[sub][c] + mod));
+                    rgb = (rgb << 8) | v;
+                }
+                pixels[y * 4 + x] = rgb;
+            }
+        }
+
+        return pixels;
+    }
+}
@@ -0,0 +1,91 @@
+package org.tamanegi.gles;
+
+import junit.framework.TestCase;
+
+import android.opengl.Matrix;
+import android.os.Debug;
+
+public class GLMatrixTest extends TestCase
+{
+    private static final int FRAME_CNT = 1000;
+
+    public void testConcat()
+    {
+        GLMatrix a = new GLMatrix().translate(1, 2, 3).scale(2, 2, 2);
+        GLMatrix b = new GLMatrix().rotateZ(30).translate(-1, 0, 0);
+
+        float[] expected = new float[16];
+        Matrix.multiplyMM(expected, 0, a.get(), 0, b.get(), 0);
+        a.concat(b);
+
+        assertMatrix(expected, a.get());
+    }
+
+    public void testRotate()
+    {
+        GLMatrix a = new GLMatrix().translate(0, 1, 0);
+        float[] expected = new float[16];
+        Matrix.setIdentityM(expected, 0);
+        Matrix.translateM(expected, 0, 0, 1, 0);
+        float[] rot = new float[16];
+        Matrix.setRotateM(rot, 0, 45, 0, 1, 0);
+        float[] result = new float[16];
+        Matrix.multiplyMM(result, 0, expected, 0, rot, 0);
+
+        a.rotateY(45);
+
+        assertMatrix(result, a.get());
+    }
+
+    public void testSteadyFrameAllocatesNothing()
+    {
+        GLMatrix base = new GLMatrix();
+        GLMatrix center = new GLMatrix();
+        GLMatrix reflect = new GLMatrix();
+        GLColor color = new GLColor();
+
+        // first frame allocates scratch arrays
+        drawFrame(0, base, center, reflect, color);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for(int i = 1; i <= FRAME_CNT; i++) {
+                drawFrame(i, base, center, reflect, color);
+            }
+            assertEquals(0, Debug.getThreadAllocCount());
+        }
+        finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    // same matrix and color operations as drawPicture for each screen
+    private static void drawFrame(int frame, GLMatrix base, GLMatrix center,
+                                  GLMatrix reflect, GLColor color)
+    {
+        float dx = (frame % 100) / 100f;
+
+        base.setIdentity()
+            .setFrustum(-1, 1, -1, 1, 1, 10)
+            .translate(0, 0, -2);
+
+        center.set(base)
+            .translate(dx, 0, 0)
+            .rotateY(dx * 90)
+            .scale(1, 1, 1);
+        reflect.set(center)
+            .translate(0, -2, 0)
+            .scale(1, -1, 1);
+        center.concat(reflect);
+
+        color.set(0xff000000 | frame).setAlpha(dx);
+    }
+
+    private static void assertMatrix(float[] expected, float[] actual)
+    {
+        for(int i = 0; i < 16; i++) {
+            assertEquals("element " + i, expected[i], actual[i], 1e-5f);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.tamanegi.wallpaper.multipicture;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class BackgroundColorDetectorTest extends TestCase
+{
+    // width, height of test pictures
+    private static final int[][] SIZES = {
+        { 1, 1 }, { 2, 3 }, { 7, 5 }, { 10, 10 }, { 31, 17 },
+        { 64, 48 }, { 90, 120 }, { 128, 64 },
+    };
+
+    // xratio, yratio
+    private static final float[][] RATIOS = {
+        { 1, 1 }, { 0.5f, 1 }, { 1, 0.5f }, { 0.8f, 0.8f }, { 1.5f, 2 },
+    };
+
+    public void testSolid()
+    {
+        for(int[] size : SIZES) {
+            int[] pixels = new int[size[0] * size[1]];
+            Arrays.fill(pixels, 0xff336699);
+            checkDetect("solid", pixels, size[0], size[1]);
+        }
+    }
+
+    public void testFrame()
+    {
+        // border and center in different colors: border is weighted
+        for(int[] size : SIZES) {
+            int w = size[0];
+            int h = size[1];
+            int[] pixels = new int[w * h];
+            for(int y = 0; y < h; y++) {
+                for(int x = 0; x < w; x++) {
+                    boolean border = (x < w / 8 || x >= w - w / 8 ||
+                                      y < h / 8 || y >= h - h / 8);
+                    pixels[y * w + x] = (border ? 0xfff0e0d0 : 0xff102030);
+                }
+            }
+            checkDetect("frame", pixels, w, h);
+        }
+    }
+
+    public void testGradient()
+    {
+        for(int[] size : SIZES) {
+            int w = size[0];
+            int h = size[1];
+            int[] pixels = new int[w * h];
+            for(int y = 0; y < h; y++) {
+                for(int x = 0; x < w; x++) {
+                    pixels[y * w + x] = (0xff000000 |
+                                         ((x * 255 / w) << 16) |
+                                         ((y * 255 / h) << 8) |
+                                         ((x + y) & 0xff));
+                }
+            }
+            checkDetect("gradient", pixels, w, h);
+        }
+    }
+
+    public void testNoise()
+    {
+        // few colors which are close each other: ties are likely
+        Random random = new Random(1234);
+        int[] palette = {
+            0xff808080, 0xff808081, 0xff818080, 0xff8f8f8f,
+            0xff000000, 0xffffffff, 0xff7f8080, 0xff808180,
+        };
+
+        for(int n = 0; n < 20; n++) {
+            for(int[] size : SIZES) {
+                int w = size[0];
+                int h = size[1];
+                int[] pixels = new int[w * h];
+                for(int i = 0; i < pixels.length; i++) {
+                    pixels[i] = palette[random.nextInt(palette.length)];
+                }
+                checkDetect("noise " + n, pixels, w, h);
+            }
+        }
+    }
+
+    public void testRandom()
+    {
+        Random random = new Random(5678);
+        for(int n = 0; n < 20; n++) {
+            for(int[] size : SIZES) {
+                int w = size[0];
+                int h = size[1];
+                int[] pixels = new int[w * h];
+                for(int i = 0; i < pixels.length; i++) {
+                    pixels[i] = random.nextInt();
+                }
+                checkDetect("random " + n, pixels, w, h);
+            }
+        }
+    }
+
+    private static void checkDetect(String label,
+                                    int[] pixels, int w, int h)
+    {
+        // same detector for all: state is reused between pictures
+        BackgroundColorDetector detector = new BackgroundColorDetector();
+        for(float[] ratio : RATIOS) {
+            String msg = label + ": " + w + "x" + h + ", " +
+                ratio[0] + ", " + ratio[1];
+            assertEquals(msg,
+                         detectByPixel(pixels, w, h, ratio[0], ratio[1]),
+                         detector.detect(pixels, w, h, ratio[0], ratio[1]));
+        }
+    }
+
+    // two pass detection with each pixel: as renderer did before
+    private static int detectByPixel(int[] pixels, int w, int h,
+                                     float xratio, float yratio)
+    {
+        final int rex = (xratio < 1 ? 200 : 100);
+        final int rey = (yratio < 1 ? 200 : 100);
+        final int eratio = 10;
+
+        int[] cnt = new int[0x1000];
+
+        // search most significant color in [0x000...0xfff]
+        Arrays.fill(cnt, 0);
+        for(int y = 0; y < h; y++) {
+            int ry = 0;
+            if(y < h / eratio) {
+                ry = (h - y * eratio) * rey / h;
+            }
+            else if(y > h * (eratio - 1) / eratio) {
+                ry = (y * eratio - h * (eratio - 1)) * rey / h;
+            }
+
+            for(int x = 0; x < w; x++) {
+                int rx = 0;
+                if(x < w / eratio) {
+                    rx = (w - x * eratio) * rex / w;
+                }
+                else if(x > w * (eratio - 1) / eratio) {
+                    rx = (x * eratio - w * (eratio - 1)) * rex / w;
+                }
+
+                int c = pixels[y * w + x];
+                c = ((c >> 12) & 0xf00 |
+                     (c >>  8) & 0x0f0 |
+                     (c >>  4) & 0x00f);
+
+                cnt[c] += 10 + rx + ry;
+            }
+        }
+
+        // search max
+        int base_color = 0;
+        for(int i = 1; i < cnt.length; i++) {
+            if(cnt[base_color] < cnt[i]) {
+                base_color = i;
+            }
+        }
+
+        // search most significant color more detailed
+        Arrays.fill(cnt, 0);
+        for(int y = 0; y < h; y++) {
+            int ry = 0;
+            if(y < h / eratio) {
+                ry = (h - y * eratio) * rey / h;
+            }
+            else if(y > h * (eratio - 1) / eratio) {
+                ry = (y * eratio - h * (eratio - 1)) * rey / h;
+            }
+
+            for(int x = 0; x < w; x++) {
+                int rx = 0;
+                if(x < w / eratio) {
+                    rx = (w - x * eratio) * rex / w;
+                }
+                else if(x > w * (eratio - 1) / eratio) {
+                    rx = (x * eratio - w * (eratio - 1)) * rex / w;
+                }
+
+                int c = pixels[y * w + x];
+                int cb = ((c >> 12) & 0xf00 |
+                          (c >>  8) & 0x0f0 |
+                          (c >>  4) & 0x00f);
+                if(cb != base_color) {
+                    continue;
+                }
+
+                int cd = ((c >>  8) & 0xf00 |
+                          (c >>  4) & 0x0f0 |
+                          (c >>  0) & 0x00f);
+
+                cnt[cd] += 10 + rx + ry;
+            }
+        }
+
+        // search max
+        int detail_color = 0;
+        for(int i = 1; i < cnt.length; i++) {
+            if(cnt[detail_color] < cnt[i]) {
+                detail_color = i;
+            }
+        }
+
+        int color = (((base_color & 0xf00) << 12) |
+                     ((base_color & 0x0f0) <<  8) |
+                     ((base_color & 0x00f) <<  4) |
+                     ((detail_color & 0xf00) << 8) |
+                     ((detail_color & 0x0f0) << 4) |
+                     ((detail_color & 0x00f) << 0));
+        return color;
+    }
+}
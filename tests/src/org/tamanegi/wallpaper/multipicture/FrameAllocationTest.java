@@ -0,0 +1,81 @@
+package org.tamanegi.wallpaper.multipicture;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+public class FrameAllocationTest extends AndroidTestCase
+{
+    private static final String PREF_NAME = "frame_allocation_test";
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 800;
+    private static final int XCNT = 5;
+    private static final int YCNT = 2;
+    private static final int FRAME_CNT = 1000;
+
+    public void testSteadyFrameAllocatesNothing()
+    {
+        for(MultiPictureRenderer.TransitionType transition :
+                MultiPictureRenderer.TransitionType.values()) {
+            MultiPictureRenderer renderer = createRenderer(transition);
+
+            // first sweeps allocate work objects, and load classes
+            drawSweep(renderer);
+            drawSweep(renderer);
+
+            Debug.startAllocCounting();
+            try {
+                Debug.resetThreadAllocCount();
+                drawSweep(renderer);
+                assertEquals(transition.name(),
+                             0, Debug.getThreadAllocCount());
+            }
+            finally {
+                Debug.stopAllocCounting();
+            }
+        }
+    }
+
+    public void testSameFrameIsSkipped()
+    {
+        MultiPictureRenderer renderer =
+            createRenderer(MultiPictureRenderer.TransitionType.slide);
+
+        assertTrue(renderer.drawFrame(0, 0));
+        assertFalse(renderer.drawFrame(0, 0));
+        assertTrue(renderer.drawFrame(1, 0));
+        assertFalse(renderer.drawFrame(1, 0));
+        assertTrue(renderer.drawFrame(1, 1));
+        assertFalse(renderer.drawFrame(1, 1));
+    }
+
+    // scroll over all screens: each frame is at new position
+    private static void drawSweep(MultiPictureRenderer renderer)
+    {
+        for(int i = 0; i < FRAME_CNT; i++) {
+            float pos = (float)i / FRAME_CNT;
+            assertTrue(renderer.drawFrame(pos * (XCNT - 1),
+                                          pos * (YCNT - 1)));
+        }
+    }
+
+    private MultiPictureRenderer createRenderer(
+        MultiPictureRenderer.TransitionType transition)
+    {
+        SharedPreferences pref =
+            getContext().getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        pref.edit()
+            .clear()
+            .putString("draw.transition", transition.name())
+            .putBoolean("draw.reflection.top", true)
+            .putString("workaround.launcher", "none")
+            .putString("memory.max", "16")
+            .commit();
+
+        RendererSettings settings = new RendererSettings(getContext(), pref);
+        return new MultiPictureRenderer(
+            getContext(), settings, WIDTH, HEIGHT, XCNT, YCNT);
+    }
+}
@@ -0,0 +1,105 @@
+package org.tamanegi.wallpaper.multipicture;
+
+import junit.framework.TestCase;
+
+public class SampleSizePlannerTest extends TestCase
+{
+    // width, height, scale, max_pixels, expected sample size
+    private static final Object[][] CASES = {
+        // scale only
+        { 1000, 1000, 1f, 0, 1 },
+        { 1000, 1000, 0.5f, 0, 2 },
+        { 1000, 1000, 0.3f, 0, 2 },
+        { 1000, 1000, 0.25f, 0, 4 },
+        { 1001, 999, 0.5f, 0, 2 },
+        { 8000, 100, 0.5f, 0, 2 },
+        { 1000, 1000, 0f, 0, 1 },
+
+        // pixel budget only
+        { 1000, 1000, 1f, 250000, 2 },
+        { 1000, 1000, 1f, 249999, 4 },
+        { 100, 100, 1f, 1, 64 },
+
+        // both: budget first, then scale
+        { 4000, 3000, 0.1f, 1000000, 8 },
+        { 3264, 2448, 0.2f, 800 * 480 * 2, 4 },
+        { 2592, 1944, 0.5f, 800 * 480 * 2, 4 },
+        { 2592, 1944, 0.1f, 800 * 480 * 2, 8 },
+
+        // never decode to empty bitmap
+        { 3, 3, 0.01f, 0, 2 },
+        { 1, 1000, 0.001f, 0, 1 },
+    };
+
+    private static final int[] WIDTHS = { 1, 320, 1024, 2592, 4096, 7000 };
+    private static final int[] HEIGHTS = { 1, 240, 768, 1944, 3072, 5000 };
+    private static final float[] SCALES = { 0, 1, 0.5f, 0.33f, 0.1f, 0.01f };
+    private static final int[] MAX_PIXELS = {
+        0, 480 * 800 * 2, 720 * 1280 * 2, 1000000,
+    };
+
+    public void testTable()
+    {
+        for(Object[] c : CASES) {
+            int width = (Integer)c[0];
+            int height = (Integer)c[1];
+            float scale = (Float)c[2];
+            int max_pixels = (Integer)c[3];
+            int expected = (Integer)c[4];
+
+            assertEquals(width + "x" + height + ", " + scale + ", " +
+                         max_pixels,
+                         expected,
+                         SampleSizePlanner.getSampleSize(
+                             width, height, scale, max_pixels));
+        }
+    }
+
+    public void testMatrix()
+    {
+        for(int width : WIDTHS) {
+            for(int height : HEIGHTS) {
+                for(float scale : SCALES) {
+                    for(int max_pixels : MAX_PIXELS) {
+                        checkSampleSize(width, height, scale, max_pixels);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void checkSampleSize(int width, int height,
+                                        float scale, int max_pixels)
+    {
+        String label = width + "x" + height + ", " + scale + ", " +
+            max_pixels;
+        int ratio = SampleSizePlanner.getSampleSize(
+            width, height, scale, max_pixels);
+
+        // native for decoder
+        assertTrue(label, ratio >= 1);
+        assertEquals(label, 0, ratio & (ratio - 1));
+
+        // fit into budget
+        if(max_pixels > 0) {
+            assertTrue(label,
+                       (long)(width / ratio) * (height / ratio) <=
+                       max_pixels);
+        }
+
+        // not smaller than scale requires, unless budget requires
+        if(ratio > 1) {
+            int half = ratio / 2;
+            boolean over_budget =
+                (max_pixels > 0 &&
+                 (long)(width / half) * (height / half) > max_pixels);
+            assertTrue(label, over_budget || ratio * scale <= 1);
+        }
+
+        // largest one: the rest is done by resize pass
+        if(scale > 0 && width / (ratio * 2) > 0 &&
+           height / (ratio * 2) > 0) {
+            assertTrue(label, ratio * 2 * scale > 1);
+        }
+    }
+}
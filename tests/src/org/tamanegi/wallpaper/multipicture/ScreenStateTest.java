@@ -0,0 +1,140 @@
+package org.tamanegi.wallpaper.multipicture;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class ScreenStateTest extends TestCase
+{
+    private static final int UPDATE_CNT = 5000;
+    private static final int FRAME_STEP = 100; // msec
+
+    // decoded picture: only order of request
+    private static class Update
+    {
+        private int seq;
+
+        private Update(int seq)
+        {
+            this.seq = seq;
+        }
+    }
+
+    public void testFadeOutBeforeReplace()
+    {
+        ScreenState<Update> state = new ScreenState<Update>();
+        state.setStatus(PictureStatus.NORMAL);
+
+        // previous one should be taken before next one
+        Update update = new Update(1);
+        assertTrue(state.offerUpdate(update));
+        assertFalse(state.offerUpdate(new Update(2)));
+
+        int frames = 0;
+        Update taken = null;
+        while(taken == null) {
+            taken = drawFrame(state, true);
+            frames += 1;
+
+            assertTrue(frames <= 100);
+            if(taken == null) {
+                assertEquals(PictureStatus.FADEOUT, state.status);
+            }
+        }
+
+        assertSame(update, taken);
+        assertEquals(ScreenState.FADE_TOTAL_DURATION / FRAME_STEP + 1, frames);
+        assertEquals(PictureStatus.FADEIN, state.status);
+        assertTrue(state.offerUpdate(new Update(2)));
+    }
+
+    public void testFadeInReversesFadeOut()
+    {
+        ScreenState<Update> state = new ScreenState<Update>();
+        state.setStatus(PictureStatus.FADEIN);
+        state.addProgress(ScreenState.FADE_TOTAL_DURATION / 4);
+
+        // same opacity at turn
+        state.setStatus(PictureStatus.FADEOUT);
+        assertEquals(ScreenState.FADE_TOTAL_DURATION * 3 / 4 - 1,
+                     state.progress);
+    }
+
+    public void testDrawWhileLoaderHoldsLock() throws Exception
+    {
+        final ScreenState<Update> state = new ScreenState<Update>();
+        final AtomicInteger received = new AtomicInteger(0);
+        final AtomicInteger misordered = new AtomicInteger(0);
+        state.setStatus(PictureStatus.NORMAL);
+
+        // loader: keeps lock of the screen as long as it applies results
+        Thread loader = new Thread() {
+                public void run() {
+                    synchronized(state) {
+                        for(int i = 1; i <= UPDATE_CNT; i++) {
+                            while(! state.offerUpdate(new Update(i))) {
+                                Thread.yield();
+                            }
+                        }
+                    }
+                }
+            };
+
+        // drawer: frames until all results are shown
+        Thread drawer = new Thread() {
+                public void run() {
+                    int frame = 0;
+                    while(received.get() < UPDATE_CNT) {
+                        Update update = drawFrame(state, (frame++ % 2 == 0));
+                        if(update == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        if(update.seq != received.get() + 1) {
+                            misordered.incrementAndGet();
+                        }
+                        received.incrementAndGet();
+                    }
+                }
+            };
+
+        loader.start();
+        drawer.start();
+
+        // contended entries: drawer waits for a monitor
+        int blocked_cnt = 0;
+        long limit = System.currentTimeMillis() + 30 * 1000;
+        while(drawer.isAlive() && System.currentTimeMillis() < limit) {
+            if(drawer.getState() == Thread.State.BLOCKED) {
+                blocked_cnt += 1;
+            }
+            Thread.yield();
+        }
+
+        assertEquals(0, blocked_cnt);
+
+        drawer.join(1000);
+        loader.join(1000);
+        assertFalse(drawer.isAlive());
+        assertFalse(loader.isAlive());
+        assertEquals(UPDATE_CNT, received.get());
+        assertEquals(0, misordered.get());
+    }
+
+    // one frame of renderer for the screen:
+    //   status by updatePictureStatus, replace by updateScreenTexture
+    private static Update drawFrame(ScreenState<Update> state,
+                                    boolean is_visible)
+    {
+        state.updateStatus(is_visible, state.peekUpdate() != null);
+        state.addProgress(FRAME_STEP);
+
+        if(state.peekUpdate() != null && state.isReplaceable()) {
+            Update update = state.takeUpdate();
+            state.setStatus(PictureStatus.FADEIN);
+            return update;
+        }
+
+        return null;
+    }
+}